@@ -0,0 +1,53 @@
+package com.airline.api.auth.security;
+
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtUtilsBenchmark {
+    private JwtUtils jwtUtils;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        this.jwtUtils = new JwtUtils(10_000);
+        this.token = this.jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(
+                User.withUsername("admin").password("password").roles("ADMIN").build(), null));
+        // Warms the verified token cache, as a returning bearer would
+        this.jwtUtils.parseJwtToken(this.token);
+    }
+
+    @Benchmark
+    public String generate() {
+        return this.jwtUtils.generateJwtToken(new UsernamePasswordAuthenticationToken(
+                User.withUsername("admin").password("password").roles("ADMIN").build(), null));
+    }
+
+    // Previous AuthTokenFilter path: validateJwtToken and getUserNameFromJwtToken, two full verifications
+    @Benchmark
+    public void validateThenGetUserName(Blackhole blackhole) {
+        blackhole.consume(this.jwtUtils.verifyJwtToken(this.token));
+        blackhole.consume(this.jwtUtils.verifyJwtToken(this.token).getSubject());
+    }
+
+    @Benchmark
+    public String parseOnce() {
+        return this.jwtUtils.verifyJwtToken(this.token).getSubject();
+    }
+
+    @Benchmark
+    public String parseCached() {
+        Claims claims = this.jwtUtils.parseJwtToken(this.token);
+        return claims.getSubject();
+    }
+}
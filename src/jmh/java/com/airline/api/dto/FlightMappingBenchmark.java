@@ -0,0 +1,72 @@
+package com.airline.api.dto;
+
+import com.airline.api.mappers.FlightMapper;
+import com.airline.api.persistence.model.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlightMappingBenchmark {
+    private ModelMapper modelMapper;
+    private FlightMapper flightMapper;
+    // Same defaults as the ObjectMapper Spring Boot builds for the controllers
+    private ObjectMapper objectMapper;
+    private CreateFlightDto createFlightDto;
+    private Flight departedFlight;
+
+    @Setup
+    public void setUp() {
+        this.modelMapper = new ModelMapper();
+        this.flightMapper = new FlightMapper();
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        LocalDateTime etd = LocalDateTime.of(2030, 3, 21, 10, 0);
+        this.createFlightDto = new CreateFlightDto("Murcia", "Madrid", etd, etd.plusHours(2), "EC-AA1");
+
+        Airline airline = new Airline(1L, "Airline", 5);
+        Plane plane = new Plane(1L, "Boeing 777", 500, airline, "EC-AA1");
+        this.departedFlight = new Flight();
+        this.departedFlight.setId(1L);
+        this.departedFlight.setOrigin("Murcia");
+        this.departedFlight.setDestination("Madrid");
+        this.departedFlight.setEtd(etd);
+        this.departedFlight.setEta(etd.plusHours(2));
+        this.departedFlight.setPlane(plane);
+        this.departedFlight.setAirline(airline);
+        this.departedFlight.setHasDeparted(true);
+        this.departedFlight.setDepartDate(etd.plusMinutes(5));
+        this.departedFlight.addFlightStatus(new FlightStatus(1L, 1L, etd.minusDays(1), FlightStatusEnum.PENDING));
+        this.departedFlight.addFlightStatus(new FlightStatus(2L, 1L, etd.plusMinutes(5), FlightStatusEnum.DEPARTED));
+    }
+
+    @Benchmark
+    public Flight modelMapperCreateFlightDtoToFlight() {
+        return this.modelMapper.map(this.createFlightDto, Flight.class);
+    }
+
+    @Benchmark
+    public FlightStatusDto modelMapperFlightToFlightStatusDto() {
+        return this.modelMapper.map(this.departedFlight, FlightStatusDto.class);
+    }
+
+    @Benchmark
+    public Flight flightMapperCreateFlightDtoToFlight() {
+        return this.flightMapper.toFlight(this.createFlightDto);
+    }
+
+    @Benchmark
+    public byte[] jacksonSerializeFlight() throws JsonProcessingException {
+        return this.objectMapper.writeValueAsBytes(this.departedFlight);
+    }
+}
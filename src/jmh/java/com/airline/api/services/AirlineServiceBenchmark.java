@@ -0,0 +1,115 @@
+package com.airline.api.services;
+
+import com.airline.api.AirlineApplication;
+import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.FlightPageDto;
+import com.airline.api.dto.FlightSummaryDto;
+import com.airline.api.persistence.model.*;
+import com.airline.api.persistence.repositories.FlightRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AirlineServiceBenchmark {
+    private static final int SEED_CHUNK_SIZE = 1000;
+    private static final LocalDateTime FIRST_ETD = LocalDateTime.now().plusYears(1);
+
+    @Param({"1000", "10000", "100000"})
+    public int flightCount;
+
+    private ConfigurableApplicationContext context;
+    private AirlineServiceImpl airlineService;
+    // Every added flight gets its own 2 hour window on the plane, right after the seeded ones
+    private final AtomicLong nextWindow = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = new SpringApplicationBuilder(AirlineApplication.class)
+                .properties("server.port=0", "logging.level.root=WARN")
+                .run();
+        this.airlineService = this.context.getBean(AirlineServiceImpl.class);
+
+        Airline airline = this.airlineService.createAirline(new Airline("Airline", 5));
+        Plane plane = this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, airline, "EC-AA1"));
+        this.seedPendingFlights(airline, plane);
+        this.nextWindow.set(this.flightCount);
+    }
+
+    // Straight to the repository, going through addFlight would take minutes for the biggest sizes
+    private void seedPendingFlights(Airline airline, Plane plane) {
+        FlightRepository flightRepository = this.context.getBean(FlightRepository.class);
+        List<Flight> chunk = new ArrayList<>(SEED_CHUNK_SIZE);
+        for (int i = 0; i < this.flightCount; i++) {
+            Flight flight = new Flight();
+            flight.setOrigin("Murcia");
+            flight.setDestination("Madrid");
+            flight.setEtd(windowEtd(i));
+            flight.setEta(windowEtd(i).plusHours(2));
+            flight.setHasDeparted(false);
+            flight.setPlane(plane);
+            flight.setAirline(airline);
+            chunk.add(flight);
+            if (chunk.size() == SEED_CHUNK_SIZE) {
+                flightRepository.saveAll(chunk);
+                chunk.clear();
+            }
+        }
+        flightRepository.saveAll(chunk);
+    }
+
+    private static LocalDateTime windowEtd(long window) {
+        return FIRST_ETD.plusHours(3 * window);
+    }
+
+    private CreateFlightDto nextFlight() {
+        LocalDateTime etd = windowEtd(this.nextWindow.getAndIncrement());
+        return new CreateFlightDto("Murcia", "Madrid", etd, etd.plusHours(2), "EC-AA1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class PendingFlight {
+        private Long id;
+
+        @Setup(Level.Invocation)
+        public void setUp(AirlineServiceBenchmark benchmark) {
+            this.id = benchmark.airlineService.addFlight(benchmark.nextFlight()).getId();
+        }
+    }
+
+    @Benchmark
+    public Flight addFlight() {
+        return this.airlineService.addFlight(this.nextFlight());
+    }
+
+    @Benchmark
+    public void departFlight(PendingFlight pendingFlight) {
+        this.airlineService.departFlight(pendingFlight.id);
+    }
+
+    @Benchmark
+    public List<FlightSummaryDto> getPendingFlights() {
+        return this.airlineService.getPendingFlights();
+    }
+
+    @Benchmark
+    public FlightPageDto getPendingFlightsPage() {
+        return this.airlineService.getPendingFlightsPage(100, null);
+    }
+}
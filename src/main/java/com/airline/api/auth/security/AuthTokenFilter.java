@@ -1,6 +1,7 @@
 package com.airline.api.auth.security;
 
 import com.airline.api.auth.services.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,15 +25,18 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     private JwtUtils jwtUtils;
     @Autowired
     private UserDetailsServiceImpl userDetailsService;
+    @Autowired
+    private UserDetailsCache userDetailsCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
         try {
             String jwt = parseJwt(request);
-            if (jwt != null && jwtUtils.validateJwtToken(jwt)) {
-                String username = jwtUtils.getUserNameFromJwtToken(jwt);
-                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+            Claims claims = jwt != null ? jwtUtils.parseJwtToken(jwt) : null;
+            if (claims != null) {
+                String username = claims.getSubject();
+                UserDetails userDetails = userDetailsCache.get(username, userDetailsService::loadUserByUsername);
                 UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(userDetails,
                         null,
                         userDetails.getAuthorities());
@@ -1,12 +1,21 @@
 package com.airline.api.auth.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.*;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Component
@@ -14,6 +23,32 @@ public class JwtUtils {
 
     private final String jwtSecret = "mySecretKey2023";
     private final int jwtExpirationMs = 86400000;
+    // Claims of already verified tokens keyed by the token hash, each entry lives until its token expires
+    private final Cache<String, Claims> verifiedTokens;
+
+    public JwtUtils(@Value("${airline.cache.token.max-size}") long maxSize) {
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String key, Claims claims, long currentTime) {
+                        long remainingMs = claims.getExpiration().getTime() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(remainingMs, 0));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
 
     public String generateJwtToken(Authentication authentication) {
 
@@ -27,14 +62,24 @@ public class JwtUtils {
                 .compact();
     }
 
-    public String getUserNameFromJwtToken(String token) {
-        return Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(token).getBody().getSubject();
-    }
+    // Validates the token and returns its claims, null if the token is not valid
+    public Claims parseJwtToken(String authToken) {
+        if (authToken == null || authToken.isEmpty()) {
+            log.error("JWT claims string is empty");
+            return null;
+        }
+
+        String tokenHash = hash(authToken);
+        Claims claims = this.verifiedTokens.getIfPresent(tokenHash);
+        if (claims != null)
+            return claims;
 
-    public boolean validateJwtToken(String authToken) {
         try {
-            Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(authToken);
-            return true;
+            claims = this.verifyJwtToken(authToken);
+            // Tokens without expiration are verified every time
+            if (claims.getExpiration() != null)
+                this.verifiedTokens.put(tokenHash, claims);
+            return claims;
         } catch (SignatureException e) {
             log.error("Invalid JWT signature: {}", e.getMessage());
         } catch (MalformedJwtException e) {
@@ -47,6 +92,21 @@ public class JwtUtils {
             log.error("JWT claims string is empty: {}", e.getMessage());
         }
 
-        return false;
+        return null;
+    }
+
+    // Checks the signature and expiration of the token, always without the verified token cache
+    Claims verifyJwtToken(String authToken) {
+        return Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(authToken).getBody();
+    }
+
+    private static String hash(String authToken) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(authToken.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
     }
 }
@@ -0,0 +1,65 @@
+package com.airline.api.auth.security;
+
+import com.airline.api.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Password hashing of logins runs on a bounded pool, so a login burst queues or is rejected instead of taking every core
+@Component
+public class LoginExecutor implements DisposableBean {
+    private final ThreadPoolExecutor hashers;
+    private final Counter rejectedLogins;
+
+    public LoginExecutor(MeterRegistry meterRegistry,
+                         @Value("${airline.security.login.threads}") int threads,
+                         @Value("${airline.security.login.queue-capacity}") int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.hashers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "login-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Queued, active and completed logins
+        new ExecutorServiceMetrics(this.hashers, "login", Tags.empty()).bindTo(meterRegistry);
+        this.rejectedLogins = Counter.builder("airline.auth.login.rejected")
+                .description("Logins rejected because the login queue was full")
+                .register(meterRegistry);
+    }
+
+    public <T> T execute(Supplier<T> login) {
+        Future<T> result;
+        try {
+            result = this.hashers.submit(login::get);
+        } catch (RejectedExecutionException e) {
+            this.rejectedLogins.increment();
+            throw new ServiceUnavailableException("Too many logins in progress, retry later");
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("The login was interrupted, retry later");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.hashers.shutdownNow();
+    }
+}
@@ -0,0 +1,189 @@
+package com.airline.api.auth.security;
+
+import com.airline.api.utils.TokenBucket;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs right after AuthTokenFilter, so authenticated clients are limited by their JWT subject and the rest by their IP.
+// Reads and writes have their own buckets, a client flooding GET /airline/vuelo can still create flights.
+// Without authentication the security chain is skipped, but the filter still runs once as a servlet filter.
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+    private static final String READ = "read";
+    private static final String WRITE = "write";
+
+    private final Cache<String, TokenBucket> buckets;
+    private final int readCapacity;
+    private final double readTokensPerSecond;
+    private final int writeCapacity;
+    private final double writeTokensPerSecond;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<String, Counter> accepted = new HashMap<>();
+    private final Map<String, Counter> limited = new HashMap<>();
+    private final Map<String, Counter> shed = new HashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public RateLimitFilter(MeterRegistry meterRegistry,
+                           @Value("${airline.rate-limit.read.capacity}") int readCapacity,
+                           @Value("${airline.rate-limit.read.tokens-per-second}") double readTokensPerSecond,
+                           @Value("${airline.rate-limit.write.capacity}") int writeCapacity,
+                           @Value("${airline.rate-limit.write.tokens-per-second}") double writeTokensPerSecond,
+                           @Value("${airline.rate-limit.max-in-flight}") int maxInFlight,
+                           @Value("${airline.rate-limit.max-clients}") long maxClients,
+                           @Value("${airline.rate-limit.idle-timeout}") Duration idleTimeout) {
+        // An evicted client starts again with a full bucket, the idle timeout must be longer than a refill
+        this.buckets = Caffeine.newBuilder().maximumSize(maxClients).expireAfterAccess(idleTimeout).build();
+        this.readCapacity = readCapacity;
+        this.readTokensPerSecond = readTokensPerSecond;
+        this.writeCapacity = writeCapacity;
+        this.writeTokensPerSecond = writeTokensPerSecond;
+        this.maxInFlight = maxInFlight;
+
+        for (String route : new String[]{READ, WRITE}) {
+            this.accepted.put(route, this.counter(meterRegistry, route, "accepted"));
+            this.limited.put(route, this.counter(meterRegistry, route, "limited"));
+            this.shed.put(route, this.counter(meterRegistry, route, "shed"));
+        }
+        Gauge.builder("airline.ratelimit.in-flight", this.inFlight, AtomicInteger::get)
+                .description("Requests being served past the rate limit filter")
+                .register(meterRegistry);
+    }
+
+    private Counter counter(MeterRegistry meterRegistry, String route, String outcome) {
+        return Counter.builder("airline.ratelimit.requests")
+                .description("Requests seen by the rate limit filter")
+                .tag("route", route)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    // Health checks and scrapes must keep working while clients are being limited
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getServletPath().startsWith("/actuator/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String route = isRead(request) ? READ : WRITE;
+        long now = System.nanoTime();
+        long wait = this.buckets.get(clientKey(request) + ":" + route, key -> READ.equals(route)
+                        ? new TokenBucket(this.readCapacity, this.readTokensPerSecond, now)
+                        : new TokenBucket(this.writeCapacity, this.writeTokensPerSecond, now))
+                .tryConsume(now);
+        if (wait > 0) {
+            this.limited.get(route).increment();
+            // Rounded up, retrying earlier would be rejected again
+            long retryAfter = TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1);
+            this.reject(request, response, retryAfter, "Too many requests, retry later");
+            return;
+        }
+
+        if (this.inFlight.incrementAndGet() > this.maxInFlight) {
+            this.inFlight.decrementAndGet();
+            this.shed.get(route).increment();
+            this.reject(request, response, 1, "The server is busy, retry later");
+            return;
+        }
+
+        this.accepted.get(route).increment();
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            async = request.isAsyncStarted();
+        } finally {
+            // SSE subscriptions and streamed exports are still being served after the handler returns
+            if (async)
+                request.getAsyncContext().addListener(new InFlightListener());
+            else
+                this.inFlight.decrementAndGet();
+        }
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        String method = request.getMethod();
+        return HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method) || HttpMethod.OPTIONS.matches(method);
+    }
+
+    private static String clientKey(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated() && !(authentication instanceof AnonymousAuthenticationToken))
+            return "user:" + authentication.getName();
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    // Timeouts and errors are followed by the completion, the request is only released once
+    private class InFlightListener implements AsyncListener {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private void release() {
+            if (this.released.compareAndSet(false, true))
+                inFlight.decrementAndGet();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            this.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            this.release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            this.release();
+        }
+
+        // Listeners are dropped when the request goes async again
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response, long retryAfterSeconds, String message)
+            throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+
+        final Map<String, Object> body = new HashMap<>();
+        body.put("status", HttpStatus.TOO_MANY_REQUESTS.value());
+        body.put("error", HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase());
+        body.put("message", message);
+        body.put("path", request.getServletPath());
+        this.mapper.writeValue(response.getOutputStream(), body);
+    }
+}
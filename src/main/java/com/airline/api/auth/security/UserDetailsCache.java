@@ -0,0 +1,46 @@
+package com.airline.api.auth.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+// Principals of already authenticated users, so a valid JWT does not cost a user query per request.
+// Must be invalidated whenever the authorities of a user change.
+@Component
+public class UserDetailsCache {
+    private final Cache<String, UserDetails> principals;
+
+    public UserDetailsCache(@Value("${airline.cache.principal.max-size}") long maxSize,
+                            @Value("${airline.cache.principal.ttl}") Duration ttl) {
+        this.principals = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+    }
+
+    public UserDetails get(String username, Function<String, UserDetails> loader) {
+        return this.principals.get(username, key -> {
+            UserDetails userDetails = loader.apply(key);
+            // The password hash is only needed to log in, do not keep it in memory
+            if (userDetails instanceof CredentialsContainer)
+                ((CredentialsContainer) userDetails).eraseCredentials();
+            return userDetails;
+        });
+    }
+
+    public void invalidate(String username) {
+        this.principals.invalidate(username);
+    }
+
+    public void invalidateAll() {
+        this.principals.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return this.principals.stats();
+    }
+}
@@ -0,0 +1,23 @@
+package com.airline.api.auth.security;
+
+import com.airline.api.auth.model.Role;
+import com.airline.api.auth.model.User;
+import lombok.Getter;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.Collections;
+
+// Carries what the login response needs, so it is built without reading the user again
+@Getter
+public class UserPrincipal extends org.springframework.security.core.userdetails.User {
+    private final Long id;
+    private final String email;
+    private final Role role;
+
+    public UserPrincipal(User user) {
+        super(user.getUsername(), user.getPassword(), Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + user.getRole())));
+        this.id = user.getId();
+        this.email = user.getEmail();
+        this.role = user.getRole();
+    }
+}
@@ -2,8 +2,10 @@ package com.airline.api.auth.services;
 
 import com.airline.api.auth.model.User;
 import com.airline.api.auth.repositories.UserRepository;
+import com.airline.api.auth.security.UserPrincipal;
 import lombok.AllArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
@@ -11,7 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 @AllArgsConstructor
 @Service
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
 
     private final UserRepository userRepository;
 
@@ -21,10 +23,15 @@ public class UserDetailsServiceImpl implements UserDetailsService {
         User user = userRepository.findByUsername(username);
         if (user == null)
             throw (new UsernameNotFoundException("User not found with username: " + username));
-        return org.springframework.security.core.userdetails.User
-                .withUsername(username)
-                .roles(user.getRole().toString())
-                .password(user.getPassword())
-                .build();
+        return new UserPrincipal(user);
+    }
+
+    // Called on a successful login whose stored hash uses an outdated encoding, with the password hashed again
+    @Override
+    @Transactional
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        User user = userRepository.findByUsername(userDetails.getUsername());
+        user.setPassword(newPassword);
+        return new UserPrincipal(userRepository.save(user));
     }
 }
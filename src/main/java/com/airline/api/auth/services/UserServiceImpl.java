@@ -7,13 +7,16 @@ import com.airline.api.auth.model.Role;
 import com.airline.api.auth.model.User;
 import com.airline.api.auth.repositories.UserRepository;
 import com.airline.api.auth.security.JwtUtils;
+import com.airline.api.auth.security.LoginExecutor;
+import com.airline.api.auth.security.UserDetailsCache;
+import com.airline.api.auth.security.UserPrincipal;
 import com.airline.api.exceptions.BadRequestException;
+import com.airline.api.exceptions.EntityNotFoundException;
 import lombok.AllArgsConstructor;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
@@ -24,14 +27,15 @@ public class UserServiceImpl {
     private final PasswordEncoder passwordEncoder;
     private final AuthenticationManager authenticationManager;
     private final JwtUtils jwtUtils;
+    private final UserDetailsCache userDetailsCache;
+    private final LoginExecutor loginExecutor;
 
     public UserJwtDto authenticateUser(LoginDto loginDto) {
-        Authentication authentication = authenticationManager
-                .authenticate(new UsernamePasswordAuthenticationToken(loginDto.getUsername(), loginDto.getPassword()));
+        Authentication authentication = loginExecutor.execute(() -> authenticationManager
+                .authenticate(new UsernamePasswordAuthenticationToken(loginDto.getUsername(), loginDto.getPassword())));
         SecurityContextHolder.getContext().setAuthentication(authentication);
-        UserDetails userDetails = (UserDetails) authentication.getPrincipal();
+        UserPrincipal user = (UserPrincipal) authentication.getPrincipal();
         String jwt = jwtUtils.generateJwtToken(authentication);
-        User user = userRepository.findByUsername(userDetails.getUsername());
         return new UserJwtDto(jwt, "Bearer", user.getId(), user.getUsername(), user.getEmail(),
                 user.getRole().toString());
 
@@ -59,6 +63,18 @@ public class UserServiceImpl {
                 userRol);
 
         this.userRepository.save(user);
+        this.userDetailsCache.invalidate(user.getUsername());
+    }
+
+    public void updateUserRole(String username, Role role) {
+        User user = this.userRepository.findByUsername(username);
+        if (user == null)
+            throw new EntityNotFoundException("Cannot find user with username: " + username);
+
+        user.setRole(role);
+        this.userRepository.save(user);
+        // Authenticated requests must see the new authorities right away
+        this.userDetailsCache.invalidate(username);
     }
 }
 
@@ -0,0 +1,238 @@
+package com.airline.api.cache;
+
+import com.airline.api.dto.FlightScheduleDto;
+import com.airline.api.exceptions.PlaneUnavailableException;
+import com.airline.api.persistence.model.Flight;
+import com.airline.api.persistence.model.Plane;
+import com.airline.api.persistence.repositories.FlightRepository;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Schedules of every plane kept in memory, so a double-booked plane is found in its sorted schedules instead of an
+// overlap range scan on every flight write. A plane is loaded from the database the first time it is used, after that
+// only the writes of this instance are seen. Only schedules still to arrive are kept, the plane is busy until the eta
+// even after the flight departed, windows starting before that horizon are checked against the database.
+@Component
+public class PlaneScheduleIndex {
+    private static final Comparator<Schedule> BY_ETD = Comparator.<Schedule, LocalDateTime>comparing(schedule -> schedule.etd)
+            .thenComparing(schedule -> schedule.flightId);
+
+    private final FlightRepository flightRepository;
+    private final Clock clock;
+    private final Map<Long, PlaneSchedules> planes = new ConcurrentHashMap<>();
+    // The schedules of a plane are only read and changed holding its stripe, so different planes are checked in parallel
+    private final Lock[] locks;
+    // Writes committed to the planes of each stripe, a query run before taking the stripe is stale if it changed
+    private final AtomicLongArray commits;
+
+    public PlaneScheduleIndex(FlightRepository flightRepository, Clock clock,
+                              @Value("${airline.cache.schedule.lock-stripes}") int lockStripes) {
+        this.flightRepository = flightRepository;
+        this.clock = clock;
+        this.locks = new Lock[lockStripes];
+        for (int i = 0; i < lockStripes; i++)
+            this.locks[i] = new ReentrantLock();
+        this.commits = new AtomicLongArray(lockStripes);
+    }
+
+    // Reserves [etd, eta) of the plane for the flight, it replaces the previous schedule of the flight on that plane
+    // when the current transaction commits and it is dropped if the transaction rolls back
+    public void reserve(Plane plane, Flight flight) {
+        if (!this.tryReserve(plane, flight))
+            throw new PlaneUnavailableException(plane.getRegistrationCode(), flight.getEtd(), flight.getEta());
+    }
+
+    // Same as reserve, returning false instead of failing when the plane already has a flight in that window
+    public boolean tryReserve(Plane plane, Flight flight) {
+        Long planeId = plane.getId();
+        Reservation reservation = new Reservation(flight, flight.getEtd(), flight.getEta());
+        LocalDateTime now = LocalDateTime.now(this.clock);
+        int stripe = this.stripeOf(planeId);
+        // The queries run before taking the stripe, they are only run again holding it when a write to one of its
+        // planes committed in the meantime
+        long commits = this.commits.get(stripe);
+        List<FlightScheduleDto> loaded = this.planes.containsKey(planeId) ? null : this.findSchedules(planeId, now);
+        Boolean booked = reservation.etd.isBefore(now) ? this.isBooked(planeId, reservation) : null;
+        Lock lock = this.locks[stripe];
+        lock.lock();
+        try {
+            boolean stale = this.commits.get(stripe) != commits;
+            PlaneSchedules schedules = this.planes.get(planeId);
+            if (schedules == null) {
+                schedules = new PlaneSchedules(now, loaded == null || stale ? this.findSchedules(planeId, now) : loaded);
+                this.planes.put(planeId, schedules);
+            }
+            schedules.prune(now);
+            if (reservation.etd.isBefore(schedules.horizon) && (booked == null || stale))
+                booked = this.isBooked(planeId, reservation);
+            if (Boolean.TRUE.equals(booked) || schedules.overlaps(reservation))
+                return false;
+            schedules.pending.add(reservation);
+        } finally {
+            lock.unlock();
+        }
+
+        this.afterCompletion(committed -> this.complete(planeId, reservation, committed));
+        return true;
+    }
+
+    // Frees the schedule of a deleted flight, or of a flight moved to another plane, once the transaction commits
+    public void release(Long planeId, Long flightId) {
+        this.afterCompletion(committed -> {
+            if (!committed)
+                return;
+
+            this.withSchedules(planeId, true, schedules -> schedules.remove(flightId));
+        });
+    }
+
+    // Reservations of running transactions are lost too, only meant for tests
+    public void invalidateAll() {
+        this.planes.clear();
+    }
+
+    private void complete(Long planeId, Reservation reservation, boolean committed) {
+        this.withSchedules(planeId, committed, schedules -> {
+            schedules.pending.remove(reservation);
+            if (committed)
+                schedules.add(new Schedule(reservation.flight.getId(), reservation.etd, reservation.eta));
+        });
+    }
+
+    // Counted even when the plane is not loaded yet, a load running outside the stripe may have missed the write
+    private void withSchedules(Long planeId, boolean committed, Consumer<PlaneSchedules> action) {
+        int stripe = this.stripeOf(planeId);
+        Lock lock = this.locks[stripe];
+        lock.lock();
+        try {
+            if (committed)
+                this.commits.incrementAndGet(stripe);
+            PlaneSchedules schedules = this.planes.get(planeId);
+            if (schedules != null)
+                action.accept(schedules);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<FlightScheduleDto> findSchedules(Long planeId, LocalDateTime now) {
+        return this.flightRepository.findSchedulesByPlaneIdArrivingAfter(planeId, now);
+    }
+
+    private boolean isBooked(Long planeId, Reservation reservation) {
+        return this.flightRepository.existsOverlappingSchedule(planeId, reservation.etd, reservation.eta, reservation.flight.getId());
+    }
+
+    private int stripeOf(Long planeId) {
+        return Math.floorMod(planeId.hashCode(), this.locks.length);
+    }
+
+    // Outside of a transaction there is nothing to wait for
+    private void afterCompletion(Consumer<Boolean> action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.accept(true);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                action.accept(status == STATUS_COMMITTED);
+            }
+        });
+    }
+
+    @AllArgsConstructor
+    private static class Schedule {
+        private final Long flightId;
+        private final LocalDateTime etd;
+        private final LocalDateTime eta;
+    }
+
+    // The flight ID is read on commit, new flights may not have one yet when they are reserved
+    @AllArgsConstructor
+    private static class Reservation {
+        private final Flight flight;
+        private final LocalDateTime etd;
+        private final LocalDateTime eta;
+    }
+
+    private static class PlaneSchedules {
+        private final NavigableSet<Schedule> committed = new TreeSet<>(BY_ETD);
+        private final Map<Long, Schedule> byFlight = new HashMap<>();
+        // Reservations of the transactions still running, a handful at most
+        private final List<Reservation> pending = new ArrayList<>();
+        // Schedules arriving before it were pruned or never loaded
+        private LocalDateTime horizon;
+        // Longest committed schedule seen, it bounds how far before a reservation an overlapping schedule may depart
+        private Duration longest = Duration.ZERO;
+
+        private PlaneSchedules(LocalDateTime horizon, List<FlightScheduleDto> flights) {
+            this.horizon = horizon;
+            for (FlightScheduleDto flight : flights)
+                this.add(new Schedule(flight.getId(), flight.getEtd(), flight.getEta()));
+        }
+
+        private void add(Schedule schedule) {
+            this.remove(schedule.flightId);
+            this.committed.add(schedule);
+            this.byFlight.put(schedule.flightId, schedule);
+            Duration duration = Duration.between(schedule.etd, schedule.eta);
+            if (duration.compareTo(this.longest) > 0)
+                this.longest = duration;
+        }
+
+        // Drops the schedules that already arrived, only the ones departed and still flying are walked past
+        private void prune(LocalDateTime now) {
+            if (!now.isAfter(this.horizon))
+                return;
+
+            this.horizon = now;
+            Iterator<Schedule> schedules = this.committed.iterator();
+            while (schedules.hasNext()) {
+                Schedule schedule = schedules.next();
+                if (!schedule.etd.isBefore(now))
+                    break;
+                if (!schedule.eta.isAfter(now)) {
+                    schedules.remove();
+                    this.byFlight.remove(schedule.flightId);
+                }
+            }
+        }
+
+        private void remove(Long flightId) {
+            Schedule schedule = this.byFlight.remove(flightId);
+            if (schedule != null)
+                this.committed.remove(schedule);
+        }
+
+        private boolean overlaps(Reservation reservation) {
+            Long flightId = reservation.flight.getId();
+            // Loaded schedules may overlap each other, so not only the last one departing before the reservation is
+            // checked but every one departing within the longest schedule before it, skipping the same flight
+            LocalDateTime from = reservation.etd.minus(this.longest);
+            boolean committed = this.committed.subSet(new Schedule(Long.MIN_VALUE, from, from), true,
+                            new Schedule(Long.MIN_VALUE, reservation.eta, reservation.eta), false).stream()
+                    .anyMatch(other -> !other.flightId.equals(flightId) && other.eta.isAfter(reservation.etd));
+            if (committed)
+                return true;
+
+            return this.pending.stream()
+                    .filter(other -> flightId == null || !flightId.equals(other.flight.getId()))
+                    .anyMatch(other -> other.etd.isBefore(reservation.eta) && other.eta.isAfter(reservation.etd));
+        }
+    }
+}
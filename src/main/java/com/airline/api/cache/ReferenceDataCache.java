@@ -0,0 +1,60 @@
+package com.airline.api.cache;
+
+import com.airline.api.persistence.model.Airline;
+import com.airline.api.persistence.model.Plane;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.function.Function;
+
+// Airlines and planes are reference data that barely change, so they are kept in memory instead of
+// being queried on every flight write. Entries are detached entities, only use them as references.
+@Component
+public class ReferenceDataCache {
+    private final Cache<String, Airline> airlines;
+    private final Cache<String, Plane> planes;
+
+    public ReferenceDataCache(@Value("${airline.cache.reference.max-size}") long maxSize,
+                              @Value("${airline.cache.reference.ttl}") Duration ttl) {
+        this.airlines = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+        this.planes = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+    }
+
+    // Returns null without caching anything when the loader cannot find the airline
+    public Airline getAirline(String name, Function<String, Airline> loader) {
+        return this.airlines.get(name.toLowerCase(Locale.ROOT), loader);
+    }
+
+    // Returns null without caching anything when the loader cannot find the plane
+    public Plane getPlane(String registrationCode, Function<String, Plane> loader) {
+        return this.planes.get(registrationCode, loader);
+    }
+
+    public void invalidateAirlines() {
+        this.airlines.invalidateAll();
+        // Cached planes hold a copy of their airline
+        this.planes.invalidateAll();
+    }
+
+    public void invalidatePlanes() {
+        this.planes.invalidateAll();
+    }
+
+    public void invalidateAll() {
+        this.invalidateAirlines();
+    }
+
+    public CacheStats getAirlineStats() {
+        return this.airlines.stats();
+    }
+
+    public CacheStats getPlaneStats() {
+        return this.planes.stats();
+    }
+
+}
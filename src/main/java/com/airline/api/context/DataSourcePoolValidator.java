@@ -0,0 +1,49 @@
+package com.airline.api.context;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+// Rejects pool settings Hikari would otherwise replace by its defaults with a warning once the pool starts
+@Component
+@Slf4j
+public class DataSourcePoolValidator implements BeanPostProcessor {
+    private static final String PREFIX = "spring.datasource.hikari.";
+    private static final long MIN_CONNECTION_TIMEOUT = 250;
+    private static final long MIN_IDLE_TIMEOUT = 10000;
+    private static final long MIN_MAX_LIFETIME = 30000;
+
+    // Runs once the properties are bound and before anyone asks for a connection, which starts the pool
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof HikariDataSource)
+            validate((HikariDataSource) bean);
+        return bean;
+    }
+
+    public static void validate(HikariDataSource pool) {
+        int maximumPoolSize = pool.getMaximumPoolSize();
+        if (maximumPoolSize < 1)
+            throw new IllegalStateException(PREFIX + "maximum-pool-size must be at least 1");
+
+        // -1 when not given, the pool is then kept full
+        int minimumIdle = pool.getMinimumIdle();
+        if (minimumIdle != -1 && (minimumIdle < 0 || minimumIdle > maximumPoolSize))
+            throw new IllegalStateException(PREFIX + "minimum-idle must be between 0 and maximum-pool-size (" + maximumPoolSize + ")");
+
+        if (pool.getConnectionTimeout() < MIN_CONNECTION_TIMEOUT)
+            throw new IllegalStateException(PREFIX + "connection-timeout must be at least " + MIN_CONNECTION_TIMEOUT + "ms");
+
+        long maxLifetime = pool.getMaxLifetime();
+        if (maxLifetime != 0 && maxLifetime < MIN_MAX_LIFETIME)
+            throw new IllegalStateException(PREFIX + "max-lifetime must be 0 or at least " + MIN_MAX_LIFETIME + "ms");
+
+        long idleTimeout = pool.getIdleTimeout();
+        if (idleTimeout != 0 && (idleTimeout < MIN_IDLE_TIMEOUT || (maxLifetime != 0 && idleTimeout >= maxLifetime)))
+            throw new IllegalStateException(PREFIX + "idle-timeout must be 0 or between " + MIN_IDLE_TIMEOUT + "ms and max-lifetime");
+
+        log.info("Connection pool {} sized {} to {} connections for {}", pool.getPoolName(),
+                minimumIdle == -1 ? maximumPoolSize : minimumIdle, maximumPoolSize, pool.getJdbcUrl());
+    }
+}
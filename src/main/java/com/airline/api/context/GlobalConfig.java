@@ -1,9 +1,16 @@
 package com.airline.api.context;
 
-import org.modelmapper.ModelMapper;
+import com.airline.api.metrics.SqlBudgetAspect;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.datatype.hibernate5.Hibernate5Module;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import java.time.Clock;
+
+// Transactions wrap the SQL budget check of the services, so a call over budget is rolled back
+@EnableTransactionManagement(proxyTargetClass = true, order = SqlBudgetAspect.ORDER - 1)
 @Configuration
 public class GlobalConfig {
 
@@ -12,9 +19,22 @@ public class GlobalConfig {
     public static final boolean IS_AUTHENTICATION_ENABLE = false;
     // To run non-authorized tests this must be false, true if so
     public static final boolean IS_DATA_INITIALIZATION_ENABLE = false;
+    // Upper bound of the page size accepted by the paginated flight listings
+    public static final int MAX_PAGE_SIZE = 500;
+    // Upper bound of the flight IDs departed by one statement of the batch departure
+    public static final int MAX_DEPART_BATCH_SIZE = 1000;
+    // Upper bound of the flight IDs sent in the IN list of one read, such as the statuses of a listing
+    public static final int MAX_IN_LIST_SIZE = 1000;
+
+    // Current time of the flight statuses and events, the departure scheduler and the schedule index, so tests can move it
+    @Bean
+    public Clock clock() {
+        return Clock.systemDefaultZone();
+    }
 
+    // Lazy associations that were not loaded are left out of the JSON instead of being loaded while serializing
     @Bean
-    public ModelMapper modelMapper() {
-        return new ModelMapper();
+    public Module hibernate5Module() {
+        return new Hibernate5Module();
     }
 }
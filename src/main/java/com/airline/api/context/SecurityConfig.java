@@ -2,9 +2,11 @@ package com.airline.api.context;
 
 import com.airline.api.auth.security.AuthEntryPointJwt;
 import com.airline.api.auth.security.AuthTokenFilter;
+import com.airline.api.auth.security.RateLimitFilter;
 import com.airline.api.auth.services.UserDetailsServiceImpl;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -16,22 +18,36 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Configuration
 @EnableGlobalMethodSecurity(prePostEnabled = true, securedEnabled = true)
 @AllArgsConstructor
 @Slf4j
 public class SecurityConfig {
+    private static final String BCRYPT_ID = "bcrypt";
+    private static final String PBKDF2_ID = "pbkdf2";
 
     private final UserDetailsServiceImpl userDetailsService;
     private AuthEntryPointJwt authEntryPointJwt;
 
+    // Hashes are stored with their {id}, so the algorithm or its strength can change and older hashes are upgraded on login
     @Bean
-    public static PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public static PasswordEncoder passwordEncoder(@Value("${airline.security.bcrypt.strength}") int bcryptStrength) {
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put(BCRYPT_ID, new BCryptPasswordEncoder(bcryptStrength));
+        encoders.put(PBKDF2_ID, new Pbkdf2PasswordEncoder());
+        DelegatingPasswordEncoder passwordEncoder = new DelegatingPasswordEncoder(BCRYPT_ID, encoders);
+        // Hashes stored before the {id} prefix are plain BCrypt ones
+        passwordEncoder.setDefaultPasswordEncoderForMatches(new BCryptPasswordEncoder());
+        return passwordEncoder;
     }
 
     @Bean
@@ -45,11 +61,12 @@ public class SecurityConfig {
     }
 
     @Bean
-    public DaoAuthenticationProvider authenticationProvider() {
+    public DaoAuthenticationProvider authenticationProvider(PasswordEncoder passwordEncoder) {
         DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider();
 
         authProvider.setUserDetailsService(userDetailsService);
-        authProvider.setPasswordEncoder(passwordEncoder());
+        authProvider.setPasswordEncoder(passwordEncoder);
+        authProvider.setUserDetailsPasswordService(userDetailsService);
 
         return authProvider;
     }
@@ -63,7 +80,8 @@ public class SecurityConfig {
     }
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, DaoAuthenticationProvider authenticationProvider,
+                                           RateLimitFilter rateLimitFilter) throws Exception {
         http.cors().and().csrf().disable()
                 .exceptionHandling().authenticationEntryPoint(authEntryPointJwt).and()
                 .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS).and()
@@ -72,12 +90,15 @@ public class SecurityConfig {
                 .antMatchers(HttpMethod.POST, "/" + GlobalConfig.AIRLINE_NAME + "/**").hasRole("ADMIN")
                 .antMatchers(HttpMethod.PUT, "/" + GlobalConfig.AIRLINE_NAME + "/**").hasRole("ADMIN")
                 .antMatchers(HttpMethod.DELETE, "/" + GlobalConfig.AIRLINE_NAME + "/**").hasRole("ADMIN")
+                .antMatchers(HttpMethod.GET, "/actuator/health", "/actuator/prometheus").permitAll()
+                .antMatchers("/actuator/**").hasRole("ADMIN")
                 .antMatchers("/csrf").permitAll()
                 .antMatchers("/").permitAll()
                 .anyRequest().authenticated();
         // http.headers().frameOptions().sameOrigin();
-        http.authenticationProvider(authenticationProvider());
+        http.authenticationProvider(authenticationProvider);
         http.addFilterBefore(authenticationJwtTokenFilter(), UsernamePasswordAuthenticationFilter.class);
+        http.addFilterAfter(rateLimitFilter, AuthTokenFilter.class);
         return http.build();
     }
 
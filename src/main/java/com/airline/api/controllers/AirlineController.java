@@ -2,20 +2,41 @@ package com.airline.api.controllers;
 
 import com.airline.api.context.GlobalConfig;
 import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.DepartFlightsDto;
+import com.airline.api.dto.FlightDepartureDto;
+import com.airline.api.dto.FlightImportDto;
+import com.airline.api.dto.FlightPageDto;
+import com.airline.api.dto.FlightSearchDto;
 import com.airline.api.dto.FlightStatusDto;
+import com.airline.api.dto.FlightSummaryDto;
 import com.airline.api.dto.UpdateFlightDto;
+import com.airline.api.events.FlightEventBroadcaster;
 import com.airline.api.persistence.model.Airline;
 import com.airline.api.persistence.model.Flight;
 import com.airline.api.persistence.model.FlightStatus;
 import com.airline.api.services.AirlineServiceImpl;
+import com.airline.api.services.FlightExportServiceImpl;
+import com.airline.api.services.FlightImportServiceImpl;
+import com.airline.api.utils.IdempotencyStore;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.*;
 import lombok.AllArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
-import java.util.Set;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
 
 @AllArgsConstructor
 @RequestMapping(GlobalConfig.AIRLINE_NAME)
@@ -23,6 +44,11 @@ import java.util.Set;
 @RestController
 public class AirlineController {
     private final AirlineServiceImpl airlineService;
+    private final FlightImportServiceImpl flightImportService;
+    private final FlightExportServiceImpl flightExportService;
+    private final FlightEventBroadcaster flightEventBroadcaster;
+    private final IdempotencyStore idempotencyStore;
+    private final ObjectMapper objectMapper;
 
     @ApiOperation(value = "Returns the information of the airline", response = Airline.class)
     @ApiResponses(value = {
@@ -36,16 +62,56 @@ public class AirlineController {
         return this.airlineService.getAirline();
     }
 
-    @ApiOperation(value = "Finds all pending flights", response = Flight[].class)
+    private static boolean includesStatuses(List<String> include) {
+        return include != null && include.contains("statuses");
+    }
+
+    @ApiOperation(value = "Finds all pending flights", response = FlightSummaryDto[].class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 304, message = "Not modified since the given ETag"),
             @ApiResponse(code = 401, message = "You must register to do this operation"),
             @ApiResponse(code = 404, message = "Airline not found"),
             @ApiResponse(code = 500, message = "Internal Server Error")
     })
     @GetMapping("/vuelo")
-    public Set<Flight> findAllPendingFlights() {
-        return this.airlineService.getPendingFlights();
+    public List<FlightSummaryDto> findAllPendingFlights(@ApiParam(value = "Pass statuses to include the status history") @RequestParam(value = "include", required = false) List<String> include, WebRequest webRequest) {
+        if (webRequest.checkNotModified(this.airlineService.getPendingFlightsETag()))
+            return null;
+        return this.airlineService.getPendingFlights(includesStatuses(include));
+    }
+
+    @ApiOperation(value = "Finds a page of pending flights ordered by etd", notes = "Pass the returned nextCursor as the after parameter to fetch the next page", response = FlightPageDto.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 400, message = "Invalid page size/cursor"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 404, message = "Airline not found"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @GetMapping(value = "/vuelo", params = "size")
+    public FlightPageDto findPendingFlightsPage(@ApiParam(value = "Page size", required = true) @RequestParam("size") int size, @ApiParam(value = "Cursor returned by the previous page") @RequestParam(value = "after", required = false) String after) {
+        return this.airlineService.getPendingFlightsPage(size, after);
+    }
+
+    @ApiOperation(value = "Searches flights by route, etd window, departed state and plane, ordered by etd", notes = "Every filter is optional. Pass the returned nextCursor as the after parameter to fetch the next page", response = FlightPageDto.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 400, message = "Invalid page size/cursor/etd window"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 404, message = "Airline not found/registration code does not refer to any plane"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @GetMapping("/vuelo/buscar")
+    public FlightPageDto searchFlights(@ApiParam(value = "Origin of the flight") @RequestParam(value = "origin", required = false) String origin,
+                                       @ApiParam(value = "Destination of the flight") @RequestParam(value = "destination", required = false) String destination,
+                                       @ApiParam(value = "Flights with etd from this date on (ISO date time)") @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                       @ApiParam(value = "Flights with etd before this date (ISO date time)") @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                       @ApiParam(value = "Departed or pending flights only") @RequestParam(value = "departed", required = false) Boolean departed,
+                                       @ApiParam(value = "Registration code of the plane") @RequestParam(value = "plane", required = false) String plane,
+                                       @ApiParam(value = "Page size", required = true) @RequestParam("size") int size,
+                                       @ApiParam(value = "Cursor returned by the previous page") @RequestParam(value = "after", required = false) String after) {
+        return this.airlineService.searchFlights(new FlightSearchDto(origin, destination, from, to, departed, null), plane, size, after);
     }
 
     @ApiOperation(value = "Adds a new flight to the pending flights list", response = Flight.class)
@@ -55,24 +121,47 @@ public class AirlineController {
             @ApiResponse(code = 401, message = "You must register to do this operation"),
             @ApiResponse(code = 403, message = "Admin access only"),
             @ApiResponse(code = 404, message = "Airline from plane not found/registration code does not refer to any plane"),
-            @ApiResponse(code = 500, message = "Internal Server Error")
+            @ApiResponse(code = 409, message = "The plane already has a flight in that schedule"),
+            @ApiResponse(code = 422, message = "The Idempotency-Key was already used with a different flight"),
+            @ApiResponse(code = 500, message = "Internal Server Error"),
+            @ApiResponse(code = 503, message = "The request with the same Idempotency-Key is still in progress")
     })
     @PostMapping("/vuelo")
-    public ResponseEntity<Flight> addFlight(@ApiParam(value = "Created flight object", required = true) @Valid @RequestBody CreateFlightDto flight) {
-        return ResponseEntity.status(HttpStatus.CREATED).body(this.airlineService.addFlight(flight));
+    public ResponseEntity<Flight> addFlight(@ApiParam(value = "Created flight object", required = true) @Valid @RequestBody CreateFlightDto flight, @ApiParam(value = "Unique key of the request, a retry with the same key returns the first response instead of creating another flight") @RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return this.idempotencyStore.execute(idempotencyKey, "addFlight", flight,
+                () -> ResponseEntity.status(HttpStatus.CREATED).body(this.airlineService.addFlight(flight)));
     }
 
-    @ApiOperation(value = "Finds a flight by its ID", response = Flight.class)
+    @ApiOperation(value = "Adds a batch of flights to the pending flights list", notes = "Accepts a JSON array or NDJSON (one flight per line), invalid rows are reported and skipped", response = FlightImportDto.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Import processed, see the result of each row"),
+            @ApiResponse(code = 400, message = "Malformed body/too many rows"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 403, message = "Admin access only"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @PostMapping(value = "/vuelo/lote", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public FlightImportDto importFlights(HttpServletRequest request) throws IOException {
+        // Read straight from the request body, the rows are never bound to a single list
+        try (MappingIterator<CreateFlightDto> flights = this.objectMapper.readerFor(CreateFlightDto.class).readValues(request.getInputStream())) {
+            return this.flightImportService.importFlights(flights);
+        }
+    }
+
+    @ApiOperation(value = "Finds a flight by its ID", response = FlightSummaryDto.class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 304, message = "Not modified since the given ETag"),
             @ApiResponse(code = 400, message = "Invalid ID"),
             @ApiResponse(code = 401, message = "You must register to do this operation"),
             @ApiResponse(code = 404, message = "Flight not found"),
             @ApiResponse(code = 500, message = "Internal Server Error")
     })
     @GetMapping("/vuelo/{ID_VUELO}")
-    public Flight findFlightById(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id) {
-        return this.airlineService.findFlightById(id);
+    public FlightSummaryDto findFlightById(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id, @ApiParam(value = "Pass statuses to include the status history") @RequestParam(value = "include", required = false) List<String> include, WebRequest webRequest) {
+        if (webRequest.checkNotModified(this.airlineService.getFlightETag(id)))
+            return null;
+        return this.airlineService.findFlightSummaryById(id, includesStatuses(include));
     }
 
     @ApiOperation(value = "Updates an existing flight by its ID")
@@ -82,11 +171,13 @@ public class AirlineController {
             @ApiResponse(code = 401, message = "You must register to do this operation"),
             @ApiResponse(code = 403, message = "Admin access only"),
             @ApiResponse(code = 404, message = "Flight not found/registration code does not refer to any plane"),
+            @ApiResponse(code = 409, message = "The flight was modified concurrently/the plane already has a flight in that schedule"),
+            @ApiResponse(code = 412, message = "The flight does not match the If-Match ETag"),
             @ApiResponse(code = 500, message = "Internal Server Error")
     })
     @PutMapping("/vuelo/{ID_VUELO}")
-    public ResponseEntity<Void> updateFlightById(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id, @ApiParam(value = "Updated flight object (no mandatory properties just fill the properties you want to update)", required = true) @Valid @RequestBody UpdateFlightDto flight) {
-        this.airlineService.updateFlightById(id, flight);
+    public ResponseEntity<Void> updateFlightById(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id, @ApiParam(value = "Updated flight object (no mandatory properties just fill the properties you want to update)", required = true) @Valid @RequestBody UpdateFlightDto flight, @ApiParam(value = "ETag the flight must still have, as returned by GET /vuelo/{ID_VUELO}") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        this.airlineService.updateFlightById(id, flight, ifMatch);
         return ResponseEntity.noContent().build();
     }
 
@@ -97,39 +188,101 @@ public class AirlineController {
             @ApiResponse(code = 401, message = "You must register to do this operation"),
             @ApiResponse(code = 403, message = "Admin access only"),
             @ApiResponse(code = 404, message = "Flight not found"),
+            @ApiResponse(code = 409, message = "The flight was modified concurrently"),
+            @ApiResponse(code = 412, message = "The flight does not match the If-Match ETag"),
             @ApiResponse(code = 500, message = "Internal Server Error")
     })
     @DeleteMapping("/vuelo/{ID_VUELO}")
-    public ResponseEntity<Void> deleteFlightById(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id) {
-        this.airlineService.deleteFlightById(id);
+    public ResponseEntity<Void> deleteFlightById(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id, @ApiParam(value = "ETag the flight must still have, as returned by GET /vuelo/{ID_VUELO}") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        this.airlineService.deleteFlightById(id, ifMatch);
         return ResponseEntity.noContent().build();
     }
 
-    @ApiOperation(value = "Finds all departed flights", response = Flight[].class)
+    @ApiOperation(value = "Finds all departed flights", response = FlightSummaryDto[].class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 304, message = "Not modified since the given ETag"),
             @ApiResponse(code = 401, message = "You must register to do this operation"),
             @ApiResponse(code = 404, message = "Airline not found"),
             @ApiResponse(code = 500, message = "Internal Server Error")
     })
     @GetMapping("/salida")
-    public Set<Flight> findAllDepartedFlights() {
-        return this.airlineService.getDepartedFlights();
+    public List<FlightSummaryDto> findAllDepartedFlights(@ApiParam(value = "Pass statuses to include the status history") @RequestParam(value = "include", required = false) List<String> include, WebRequest webRequest) {
+        if (webRequest.checkNotModified(this.airlineService.getDepartedFlightsETag()))
+            return null;
+        return this.airlineService.getDepartedFlights(includesStatuses(include));
+    }
+
+    @ApiOperation(value = "Exports the departed flights history as NDJSON", notes = "One flight per line ordered by departure date, the response is streamed so its size is not limited by memory")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 400, message = "Invalid date range"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 404, message = "Airline not found"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @GetMapping(value = "/salida/exportar", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportDepartedFlights(@ApiParam(value = "Departed on or after this date") @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from, @ApiParam(value = "Departed before this date") @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(this.flightExportService.exportDepartedFlights(from, to));
+    }
+
+    @ApiOperation(value = "Streams the changes of every flight of the airline", notes = "Server-sent events named CREATED, UPDATED, DEPARTED or DELETED, a slow client only gets the latest event of each flight")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @GetMapping(value = "/salida/eventos", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeFlightEvents() {
+        return this.flightEventBroadcaster.subscribe();
+    }
+
+    @ApiOperation(value = "Streams the changes of a flight", notes = "Server-sent events named UPDATED, DEPARTED or DELETED")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 400, message = "Invalid ID"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 404, message = "Flight not found"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @GetMapping(value = "/salida/{ID_VUELO}/eventos", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeFlightEvents(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id) {
+        // Fails with a 404 before the stream is opened
+        this.airlineService.checkFlightExists(id);
+        return this.flightEventBroadcaster.subscribe(id);
     }
 
     @ApiOperation(value = "Returns the status of the flight", notes = "Return if the flight has departed and if so the departure date", response = FlightStatus.class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 304, message = "Not modified since the given ETag"),
             @ApiResponse(code = 400, message = "Invalid ID"),
             @ApiResponse(code = 401, message = "You must register to do this operation"),
             @ApiResponse(code = 404, message = "Flight not found"),
             @ApiResponse(code = 500, message = "Internal Server Error")
     })
     @GetMapping("/salida/{ID_VUELO}")
-    public FlightStatusDto getFlightStatus(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id) {
+    public FlightStatusDto getFlightStatus(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id, WebRequest webRequest) {
+        if (webRequest.checkNotModified(this.airlineService.getFlightETag(id)))
+            return null;
         return this.airlineService.getFlightStatus(id);
     }
 
+    @ApiOperation(value = "Returns the latest status of the flight", notes = "Reads only the last entry of the status log", response = FlightStatus.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 400, message = "Invalid ID"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 404, message = "Flight not found"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @GetMapping("/salida/{ID_VUELO}/estado")
+    public FlightStatus getLatestFlightStatus(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id) {
+        return this.airlineService.getLatestFlightStatus(id);
+    }
+
     @ApiOperation(value = "Departs a pending flight")
     @ApiResponses(value = {
             @ApiResponse(code = 204, message = "Successful operation"),
@@ -138,12 +291,31 @@ public class AirlineController {
             @ApiResponse(code = 403, message = "Admin access only/flight is not in the pending list"),
             @ApiResponse(code = 404, message = "Flight not found"),
             @ApiResponse(code = 409, message = "The flight has already departed"),
-            @ApiResponse(code = 500, message = "Internal Server Error")
+            @ApiResponse(code = 412, message = "The flight does not match the If-Match ETag"),
+            @ApiResponse(code = 422, message = "The Idempotency-Key was already used with a different If-Match"),
+            @ApiResponse(code = 500, message = "Internal Server Error"),
+            @ApiResponse(code = 503, message = "The request with the same Idempotency-Key is still in progress")
     })
     @PutMapping("/salida/{ID_VUELO}/despegue")
-    public ResponseEntity<Void> departFlight(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id) {
-        this.airlineService.departFlight(id);
-        return ResponseEntity.noContent().build();
+    public ResponseEntity<Void> departFlight(@ApiParam(value = "Flight ID", required = true) @PathVariable("ID_VUELO") Long id, @ApiParam(value = "ETag the flight must still have, as returned by GET /vuelo/{ID_VUELO}") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch, @ApiParam(value = "Unique key of the request, a retry with the same key returns the first response instead of a conflict") @RequestHeader(value = IdempotencyStore.IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return this.idempotencyStore.execute(idempotencyKey, "departFlight:" + id, ifMatch, () -> {
+            this.airlineService.departFlight(id, ifMatch);
+            return ResponseEntity.noContent().build();
+        });
+    }
+
+    @ApiOperation(value = "Departs a batch of pending flights", notes = "Give either the flight IDs or before to depart every pending flight with an earlier etd, already departed/missing IDs are reported without aborting the batch", response = FlightDepartureDto.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful operation"),
+            @ApiResponse(code = 400, message = "Invalid IDs/before"),
+            @ApiResponse(code = 401, message = "You must register to do this operation"),
+            @ApiResponse(code = 403, message = "Admin access only"),
+            @ApiResponse(code = 404, message = "Airline not found"),
+            @ApiResponse(code = 500, message = "Internal Server Error")
+    })
+    @PutMapping("/salida/despegue")
+    public FlightDepartureDto departFlights(@ApiParam(value = "Flights to depart", required = true) @RequestBody DepartFlightsDto departFlights) {
+        return this.airlineService.departFlights(departFlights);
     }
 
 }
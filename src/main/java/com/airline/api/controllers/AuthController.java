@@ -29,7 +29,8 @@ public class AuthController {
             @ApiResponse(code = 400, message = "Invalid username/password supplied"),
             @ApiResponse(code = 401, message = "Bad credentials"),
             @ApiResponse(code = 404, message = "User not found"),
-            @ApiResponse(code = 500, message = "Internal Server Error")
+            @ApiResponse(code = 500, message = "Internal Server Error"),
+            @ApiResponse(code = 503, message = "Too many logins in progress")
     })
     @PostMapping("/login")
     public UserJwtDto authenticateUser(@ApiParam(value = "User credentials", required = true) @Valid @RequestBody LoginDto login) {
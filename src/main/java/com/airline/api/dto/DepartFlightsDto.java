@@ -0,0 +1,16 @@
+package com.airline.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class DepartFlightsDto {
+    private List<Long> ids;
+    private LocalDateTime before;
+}
@@ -0,0 +1,16 @@
+package com.airline.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class FlightDepartureDto {
+    private List<Long> departed;
+    private List<Long> alreadyDeparted;
+    private List<Long> notFound;
+}
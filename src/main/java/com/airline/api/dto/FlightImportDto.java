@@ -0,0 +1,16 @@
+package com.airline.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class FlightImportDto {
+    private Integer created;
+    private Integer rejected;
+    private List<FlightImportRowDto> rows;
+}
@@ -0,0 +1,16 @@
+package com.airline.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FlightImportRowDto {
+    private Integer row;
+    private Long id;
+    private String error;
+}
@@ -0,0 +1,18 @@
+package com.airline.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FlightPageDto {
+    private List<FlightSummaryDto> flights;
+    // Null when there are no more flights to fetch
+    private String nextCursor;
+}
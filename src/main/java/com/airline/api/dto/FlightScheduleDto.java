@@ -0,0 +1,16 @@
+package com.airline.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class FlightScheduleDto {
+    private Long id;
+    private LocalDateTime etd;
+    private LocalDateTime eta;
+}
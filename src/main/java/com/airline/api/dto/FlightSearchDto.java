@@ -0,0 +1,21 @@
+package com.airline.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Filters of the flight search, null ones are left out of the query
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class FlightSearchDto {
+    private String origin;
+    private String destination;
+    // etd window, from inclusive and to exclusive
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private Boolean departed;
+    private Long planeId;
+}
@@ -0,0 +1,47 @@
+package com.airline.api.dto;
+
+import com.airline.api.persistence.model.Airline;
+import com.airline.api.persistence.model.FlightStatus;
+import com.airline.api.persistence.model.Plane;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Read model of a flight built straight from the query columns, same JSON as the Flight entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FlightSummaryDto {
+    private Long id;
+    private String origin;
+    private String destination;
+    private LocalDateTime etd;
+    private LocalDateTime eta;
+    private LocalDateTime departDate;
+    private List<FlightStatus> statuses;
+    private Boolean hasDeparted;
+    private Plane plane;
+
+    // Used by the JPQL constructor expressions of FlightRepository, the plane and airline are plain unmanaged objects
+    public FlightSummaryDto(Long id, String origin, String destination, LocalDateTime etd, LocalDateTime eta,
+                            LocalDateTime departDate, Boolean hasDeparted, Long planeId, String planeModel,
+                            Integer planeCapacity, String planeRegistrationCode, Long airlineId, String airlineName,
+                            Integer airlinePlaneCount) {
+        this.id = id;
+        this.origin = origin;
+        this.destination = destination;
+        this.etd = etd;
+        this.eta = eta;
+        this.departDate = departDate;
+        this.hasDeparted = hasDeparted;
+        if (planeId != null) {
+            Airline airline = airlineId != null ? new Airline(airlineId, airlineName, airlinePlaneCount) : null;
+            this.plane = new Plane(planeId, planeModel, planeCapacity, airline, planeRegistrationCode);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.airline.api.events;
+
+import com.airline.api.persistence.model.Flight;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FlightEvent {
+    private Long flightId;
+    private FlightEventType type;
+    private Boolean hasDeparted;
+    // Left out of departures, they do not change it
+    private LocalDateTime etd;
+    private LocalDateTime departDate;
+    private LocalDateTime eventDate;
+
+    // Dated by the caller, with the same clock as the statuses written along with it
+    public static FlightEvent of(FlightEventType type, Flight flight, LocalDateTime eventDate) {
+        return new FlightEvent(flight.getId(), type, flight.getHasDeparted(), flight.getEtd(), flight.getDepartDate(), eventDate);
+    }
+}
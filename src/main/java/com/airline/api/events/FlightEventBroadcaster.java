@@ -0,0 +1,211 @@
+package com.airline.api.events;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fans flight events out to SSE subscribers, publishers never wait for the clients. A subscriber whose drain outlasts
+// the send timeout, or that loses a whole buffer of events before a drain finishes, is dropped, so stalled clients
+// cannot keep the sender threads from the rest.
+@Slf4j
+@Component
+public class FlightEventBroadcaster implements DisposableBean {
+    private final Set<Subscriber> airlineSubscribers = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Set<Subscriber>> flightSubscribers = new ConcurrentHashMap<>();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService watchdog;
+    private final long timeoutMillis;
+    private final long sendTimeoutMillis;
+    private final int maxPendingEvents;
+
+    public FlightEventBroadcaster(@Value("${airline.events.timeout}") Duration timeout,
+                                  @Value("${airline.events.send-timeout}") Duration sendTimeout,
+                                  @Value("${airline.events.max-pending}") int maxPendingEvents,
+                                  @Value("${airline.events.threads}") int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "flight-events-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flight-events-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutMillis = timeout.toMillis();
+        this.sendTimeoutMillis = sendTimeout.toMillis();
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    public SseEmitter subscribe() {
+        Subscriber subscriber = new Subscriber();
+        // Removal is set up before the subscriber is visible, an event may drop it right away
+        SseEmitter emitter = subscriber.onRemoved(() -> this.airlineSubscribers.remove(subscriber));
+        this.airlineSubscribers.add(subscriber);
+        return emitter;
+    }
+
+    public SseEmitter subscribe(Long flightId) {
+        Subscriber subscriber = new Subscriber();
+        SseEmitter emitter = subscriber.onRemoved(() -> this.flightSubscribers.computeIfPresent(flightId, (id, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        }));
+        // Updated inside compute so a set is never dropped from the map while a subscriber is being added to it
+        this.flightSubscribers.compute(flightId, (id, subscribers) -> {
+            Set<Subscriber> flightSubscribers = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            flightSubscribers.add(subscriber);
+            return flightSubscribers;
+        });
+        return emitter;
+    }
+
+    // After commit, so rolled back changes are never pushed
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFlightEvent(FlightEvent event) {
+        this.airlineSubscribers.forEach(subscriber -> subscriber.offer(event));
+        Set<Subscriber> subscribers = this.flightSubscribers.get(event.getFlightId());
+        if (subscribers != null)
+            subscribers.forEach(subscriber -> subscriber.offer(event));
+    }
+
+    public int getSubscriberCount() {
+        return this.airlineSubscribers.size() + this.flightSubscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    // Overridden by tests to stand in for slow clients
+    protected SseEmitter createEmitter(long timeoutMillis) {
+        return new SseEmitter(timeoutMillis);
+    }
+
+    @Override
+    public void destroy() {
+        this.senders.shutdownNow();
+        this.watchdog.shutdownNow();
+        this.airlineSubscribers.forEach(subscriber -> subscriber.emitter.complete());
+        this.flightSubscribers.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    private class Subscriber {
+        private final SseEmitter emitter = createEmitter(timeoutMillis);
+        // Only the latest event of each flight is kept, a slow client skips the intermediate ones
+        private final LinkedHashMap<Long, FlightEvent> pending = new LinkedHashMap<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // Events dropped from a full buffer since the last drain took the pending ones, guarded by pending
+        private int overflowed;
+        // Thread running the drain, guarded by this so a late close never interrupts the next task of that thread
+        private Thread sender;
+        private Runnable remove;
+
+        SseEmitter onRemoved(Runnable remove) {
+            this.remove = remove;
+            this.emitter.onCompletion(remove);
+            this.emitter.onError(error -> remove.run());
+            this.emitter.onTimeout(this.emitter::complete);
+            return this.emitter;
+        }
+
+        void offer(FlightEvent event) {
+            if (this.closed.get())
+                return;
+
+            boolean overflowing;
+            synchronized (this.pending) {
+                this.pending.remove(event.getFlightId());
+                this.pending.put(event.getFlightId(), event);
+                if (this.pending.size() > maxPendingEvents) {
+                    Iterator<Long> eldest = this.pending.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                    this.overflowed++;
+                }
+                overflowing = this.overflowed >= maxPendingEvents;
+            }
+            if (overflowing)
+                this.close("it lost " + maxPendingEvents + " events without catching up");
+            else
+                this.scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (this.draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    this.draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            synchronized (this) {
+                this.sender = Thread.currentThread();
+            }
+            ScheduledFuture<?> deadline = watchdog.schedule(
+                    () -> this.close("a send took longer than " + sendTimeoutMillis + " ms"), sendTimeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                List<FlightEvent> events;
+                synchronized (this.pending) {
+                    events = new ArrayList<>(this.pending.values());
+                    this.pending.clear();
+                    this.overflowed = 0;
+                }
+                for (FlightEvent event : events) {
+                    if (this.closed.get())
+                        return;
+                    this.emitter.send(SseEmitter.event()
+                            .name(event.getType().name())
+                            .data(event, MediaType.APPLICATION_JSON));
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Flight event subscriber disconnected: {}", e.getMessage());
+                this.emitter.completeWithError(e);
+                return;
+            } finally {
+                deadline.cancel(false);
+                synchronized (this) {
+                    this.sender = null;
+                    // Clears an interrupt of close, the pool thread goes on with other subscribers
+                    Thread.interrupted();
+                }
+                this.draining.set(false);
+            }
+            boolean hasPending;
+            synchronized (this.pending) {
+                hasPending = !this.pending.isEmpty();
+            }
+            if (hasPending)
+                this.scheduleDrain();
+        }
+
+        // Stops the fan-out to the subscriber and wakes up its sender if it is blocked writing to the client
+        private void close(String reason) {
+            if (!this.closed.compareAndSet(false, true))
+                return;
+
+            log.debug("Flight event subscriber dropped, {}", reason);
+            this.remove.run();
+            synchronized (this.pending) {
+                this.pending.clear();
+            }
+            synchronized (this) {
+                if (this.sender != null)
+                    this.sender.interrupt();
+            }
+            this.emitter.complete();
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.airline.api.events;
+
+public enum FlightEventType {
+    CREATED, UPDATED, DEPARTED, DELETED
+}
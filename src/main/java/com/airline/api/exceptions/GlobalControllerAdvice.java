@@ -1,5 +1,8 @@
 package com.airline.api.exceptions;
 
+import com.airline.api.metrics.AirlineMetrics;
+import lombok.AllArgsConstructor;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,7 +17,10 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 import java.time.LocalDateTime;
 
 @RestControllerAdvice
+@AllArgsConstructor
 public class GlobalControllerAdvice extends ResponseEntityExceptionHandler {
+    private final AirlineMetrics airlineMetrics;
+
     @ExceptionHandler(EntityNotFoundException.class)
     public ResponseEntity<?> handleEntityNotFoundException(EntityNotFoundException ex, WebRequest request) {
         ExceptionBody body =
@@ -35,6 +41,7 @@ public class GlobalControllerAdvice extends ResponseEntityExceptionHandler {
 
     @ExceptionHandler(DepartedFlightException.class)
     public ResponseEntity<?> handleDepartedFlightException(DepartedFlightException ex, WebRequest request) {
+        this.airlineMetrics.departureConflict();
         ExceptionBody body =
                 new ExceptionBody(LocalDateTime.now(),
                         HttpStatus.CONFLICT, ex.getMessage(),
@@ -42,8 +49,65 @@ public class GlobalControllerAdvice extends ResponseEntityExceptionHandler {
         return new ResponseEntity<Object>(body, HttpStatus.CONFLICT);
     }
 
+    @ExceptionHandler(PlaneUnavailableException.class)
+    public ResponseEntity<?> handlePlaneUnavailableException(PlaneUnavailableException ex, WebRequest request) {
+        ExceptionBody body =
+                new ExceptionBody(LocalDateTime.now(),
+                        HttpStatus.CONFLICT, ex.getMessage(),
+                        ((ServletWebRequest) request).getRequest().getRequestURI());
+        return new ResponseEntity<Object>(body, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<?> handlePreconditionFailedException(PreconditionFailedException ex, WebRequest request) {
+        ExceptionBody body =
+                new ExceptionBody(LocalDateTime.now(),
+                        HttpStatus.PRECONDITION_FAILED, ex.getMessage(),
+                        ((ServletWebRequest) request).getRequest().getRequestURI());
+        return new ResponseEntity<Object>(body, HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<?> handleIdempotencyKeyReusedException(IdempotencyKeyReusedException ex, WebRequest request) {
+        ExceptionBody body =
+                new ExceptionBody(LocalDateTime.now(),
+                        HttpStatus.UNPROCESSABLE_ENTITY, ex.getMessage(),
+                        ((ServletWebRequest) request).getRequest().getRequestURI());
+        return new ResponseEntity<Object>(body, HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+    // Another writer changed the same row between our read and our write
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<?> handleOptimisticLockingFailureException(OptimisticLockingFailureException ex, WebRequest request) {
+        ExceptionBody body =
+                new ExceptionBody(LocalDateTime.now(),
+                        HttpStatus.CONFLICT, "The resource was modified concurrently, read it again and retry",
+                        ((ServletWebRequest) request).getRequest().getRequestURI());
+        return new ResponseEntity<Object>(body, HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<?> handleServiceUnavailableException(ServiceUnavailableException ex, WebRequest request) {
+        ExceptionBody body =
+                new ExceptionBody(LocalDateTime.now(),
+                        HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage(),
+                        ((ServletWebRequest) request).getRequest().getRequestURI());
+        return new ResponseEntity<Object>(body, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    // Only thrown with airline.sql.budget.fail, the writes of the call were rolled back
+    @ExceptionHandler(SqlBudgetExceededException.class)
+    public ResponseEntity<?> handleSqlBudgetExceededException(SqlBudgetExceededException ex, WebRequest request) {
+        ExceptionBody body =
+                new ExceptionBody(LocalDateTime.now(),
+                        HttpStatus.INTERNAL_SERVER_ERROR, ex.getMessage(),
+                        ((ServletWebRequest) request).getRequest().getRequestURI());
+        return new ResponseEntity<Object>(body, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
     @ExceptionHandler(BadCredentialsException.class)
     public ResponseEntity<?> handleBadCredentialsException(BadCredentialsException ex, WebRequest request) {
+        this.airlineMetrics.loginFailure();
         ExceptionBody body =
                 new ExceptionBody(LocalDateTime.now(),
                         HttpStatus.UNAUTHORIZED, ex.getMessage(),
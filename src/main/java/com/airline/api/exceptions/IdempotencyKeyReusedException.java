@@ -0,0 +1,7 @@
+package com.airline.api.exceptions;
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+    public IdempotencyKeyReusedException(String idempotencyKey) {
+        super("Idempotency-Key: " + idempotencyKey + " was already used with a different request");
+    }
+}
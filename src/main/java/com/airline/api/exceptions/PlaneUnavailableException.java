@@ -0,0 +1,9 @@
+package com.airline.api.exceptions;
+
+import java.time.LocalDateTime;
+
+public class PlaneUnavailableException extends RuntimeException {
+    public PlaneUnavailableException(String registrationCode, LocalDateTime etd, LocalDateTime eta) {
+        super("Plane with registration code: " + registrationCode + " already has a flight between " + etd + " and " + eta);
+    }
+}
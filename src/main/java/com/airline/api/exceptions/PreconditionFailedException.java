@@ -0,0 +1,7 @@
+package com.airline.api.exceptions;
+
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(Long id) {
+        super("Flight with ID: " + id + " does not match the given If-Match ETag");
+    }
+}
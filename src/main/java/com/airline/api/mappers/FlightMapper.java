@@ -0,0 +1,35 @@
+package com.airline.api.mappers;
+
+import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.FlightPageDto;
+import com.airline.api.dto.FlightSummaryDto;
+import com.airline.api.persistence.model.Flight;
+import com.airline.api.utils.FlightCursor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Plain field copies, no reflection on the request path
+@Component
+public class FlightMapper {
+
+    public Flight toFlight(CreateFlightDto flightDto) {
+        Flight flight = new Flight();
+        flight.setOrigin(flightDto.getOrigin());
+        flight.setDestination(flightDto.getDestination());
+        flight.setEtd(flightDto.getEtd());
+        flight.setEta(flightDto.getEta());
+        return flight;
+    }
+
+    // flights holds up to size + 1 rows, the extra one only tells that there is a next page
+    public FlightPageDto toFlightPageDto(List<FlightSummaryDto> flights, int size) {
+        if (flights.size() <= size)
+            return new FlightPageDto(flights, null);
+
+        List<FlightSummaryDto> page = new ArrayList<>(flights.subList(0, size));
+        FlightSummaryDto last = page.get(size - 1);
+        return new FlightPageDto(page, FlightCursor.encode(last.getEtd(), last.getId()));
+    }
+}
@@ -0,0 +1,75 @@
+package com.airline.api.metrics;
+
+import com.airline.api.cache.ReferenceDataCache;
+import com.airline.api.context.GlobalConfig;
+import com.airline.api.events.FlightEvent;
+import com.airline.api.events.FlightEventType;
+import com.airline.api.persistence.model.Airline;
+import com.airline.api.persistence.repositories.AirlineRepository;
+import com.airline.api.persistence.repositories.FlightRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+// Business meters published next to the http.server.requests timers on /actuator/prometheus
+@Component
+public class AirlineMetrics {
+    private final Counter flightsCreated;
+    private final Counter flightsDeparted;
+    private final Counter departureConflicts;
+    private final Counter loginFailures;
+
+    private final FlightRepository flightRepository;
+    private final AirlineRepository airlineRepository;
+    private final ReferenceDataCache referenceDataCache;
+
+    public AirlineMetrics(MeterRegistry meterRegistry, FlightRepository flightRepository, AirlineRepository airlineRepository,
+                          ReferenceDataCache referenceDataCache) {
+        this.flightRepository = flightRepository;
+        this.airlineRepository = airlineRepository;
+        this.referenceDataCache = referenceDataCache;
+        this.flightsCreated = Counter.builder("airline.flights.created")
+                .description("Flights created, one by one or imported")
+                .register(meterRegistry);
+        this.flightsDeparted = Counter.builder("airline.flights.departed")
+                .description("Flights departed, one by one or in batches")
+                .register(meterRegistry);
+        this.departureConflicts = Counter.builder("airline.flights.departure.conflicts")
+                .description("Departures rejected because the flight had already departed")
+                .register(meterRegistry);
+        this.loginFailures = Counter.builder("airline.auth.login.failures")
+                .description("Logins rejected because of bad credentials")
+                .register(meterRegistry);
+        // Counted on every scrape only, nothing is kept in memory
+        Gauge.builder("airline.flights.pending", this, AirlineMetrics::countPendingFlights)
+                .description("Flights of the airline that have not departed yet")
+                .register(meterRegistry);
+    }
+
+    // Same airline as the pending listings, counted on the (airline_id, has_departed, etd) index
+    private double countPendingFlights() {
+        Airline airline = this.referenceDataCache.getAirline(GlobalConfig.AIRLINE_NAME, this.airlineRepository::findByNameIgnoreCase);
+        if (airline == null)
+            return Double.NaN;
+        return this.flightRepository.countFlights(airline.getId(), false);
+    }
+
+    // Only committed changes are counted, events of rolled back transactions are dropped
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFlightEvent(FlightEvent event) {
+        if (event.getType() == FlightEventType.CREATED)
+            this.flightsCreated.increment();
+        else if (event.getType() == FlightEventType.DEPARTED)
+            this.flightsDeparted.increment();
+    }
+
+    public void departureConflict() {
+        this.departureConflicts.increment();
+    }
+
+    public void loginFailure() {
+        this.loginFailures.increment();
+    }
+}
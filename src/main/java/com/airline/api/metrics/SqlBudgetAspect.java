@@ -0,0 +1,50 @@
+package com.airline.api.metrics;
+
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+// Inside the transaction, so a call over budget rolls its writes back instead of failing after they were committed.
+// The writes Hibernate would flush on commit are flushed first to count them too.
+@Aspect
+@Component
+@Order(SqlBudgetAspect.ORDER)
+@RequiredArgsConstructor
+public class SqlBudgetAspect {
+    // Right after the transaction advisor of GlobalConfig
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE;
+
+    private final SqlStatementCounter sqlStatementCounter;
+    private final SqlStatementBudget sqlStatementBudget;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Around("execution(public * com.airline.api.services.AirlineServiceImpl.*(..))")
+    public Object countStatements(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = this.sqlStatementCounter.current();
+        Object result = joinPoint.proceed();
+        if (TransactionSynchronizationManager.isActualTransactionActive() && !TransactionSynchronizationManager.isCurrentTransactionReadOnly())
+            this.flush();
+        this.sqlStatementBudget.checkService(joinPoint.getSignature().getName(), this.sqlStatementCounter.current() - start);
+        return result;
+    }
+
+    private void flush() {
+        try {
+            this.entityManager.flush();
+        } catch (RuntimeException e) {
+            DataAccessException translated = EntityManagerFactoryUtils.convertJpaAccessExceptionIfPossible(e);
+            throw translated != null ? translated : e;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.airline.api.metrics;
+
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// Statements of streamed responses (export, events) run on other threads and are not counted
+@Component
+@AllArgsConstructor
+public class SqlBudgetInterceptor implements HandlerInterceptor {
+    private static final String START_ATTRIBUTE = SqlBudgetInterceptor.class.getName() + ".start";
+
+    private final SqlStatementCounter sqlStatementCounter;
+    private final SqlStatementBudget sqlStatementBudget;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod)
+            request.setAttribute(START_ATTRIBUTE, this.sqlStatementCounter.current());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start == null)
+            return;
+
+        String name = request.getMethod() + " " + request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        this.sqlStatementBudget.checkRequest(name, this.sqlStatementCounter.current() - (Long) start);
+    }
+}
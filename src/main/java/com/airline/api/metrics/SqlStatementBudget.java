@@ -0,0 +1,70 @@
+package com.airline.api.metrics;
+
+import com.airline.api.exceptions.SqlBudgetExceededException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Records the statements run by every request and service call, and reports the ones over their budget
+@Component
+@Slf4j
+public class SqlStatementBudget {
+    private static final String METRIC = "airline.sql.statements";
+
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+    private final Map<String, Integer> serviceBudgets = new ConcurrentHashMap<>();
+    private final int requestBudget;
+    private final int serviceBudget;
+    private final boolean failOnExceeded;
+
+    public SqlStatementBudget(MeterRegistry meterRegistry, Environment environment,
+                              @Value("${airline.sql.budget.request}") int requestBudget,
+                              @Value("${airline.sql.budget.service}") int serviceBudget,
+                              @Value("${airline.sql.budget.fail}") boolean failOnExceeded) {
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        this.requestBudget = requestBudget;
+        this.serviceBudget = serviceBudget;
+        this.failOnExceeded = failOnExceeded;
+    }
+
+    // The response is already written by then, so requests over budget are only logged
+    public void checkRequest(String name, long statements) {
+        if (this.record("request", name, statements, this.requestBudget))
+            log.warn("Request {} ran {} SQL statements, over its budget of {}", name, statements, this.requestBudget);
+    }
+
+    public void checkService(String name, long statements) {
+        int budget = this.serviceBudget(name);
+        if (!this.record("service", name, statements, budget))
+            return;
+
+        String message = "Service method " + name + " ran " + statements + " SQL statements, over its budget of " + budget;
+        if (this.failOnExceeded)
+            throw new SqlBudgetExceededException(message);
+        log.warn(message);
+    }
+
+    // airline.sql.budget.method.<name> overrides the budget of a method, a negative one leaves it unchecked
+    private int serviceBudget(String name) {
+        return this.serviceBudgets.computeIfAbsent(name, method ->
+                this.environment.getProperty("airline.sql.budget.method." + method, Integer.class, this.serviceBudget));
+    }
+
+    private boolean record(String scope, String name, long statements, int budget) {
+        DistributionSummary.builder(METRIC)
+                .description("SQL statements run by a request or a service call")
+                .tag("scope", scope)
+                .tag("name", name)
+                .register(this.meterRegistry)
+                .record(statements);
+        return budget >= 0 && statements > budget;
+    }
+}
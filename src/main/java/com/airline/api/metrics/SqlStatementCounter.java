@@ -0,0 +1,30 @@
+package com.airline.api.metrics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// Counts the SQL statements Hibernate prepares on each thread, a scope reads the difference before and after it runs
+@Component
+public class SqlStatementCounter implements StatementInspector, HibernatePropertiesCustomizer {
+    private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+
+    // A JDBC batch is prepared once, so it is counted as one statement
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.get()[0]++;
+        return sql;
+    }
+
+    public long current() {
+        return STATEMENTS.get()[0];
+    }
+}
@@ -7,8 +7,6 @@ import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 
 import javax.persistence.*;
-import java.util.HashSet;
-import java.util.Set;
 
 @Entity
 @Data
@@ -16,7 +14,7 @@ import java.util.Set;
 @NoArgsConstructor
 @EqualsAndHashCode(of = "id")
 @Table(uniqueConstraints = {
-        @UniqueConstraint(columnNames = "name")
+        @UniqueConstraint(name = "uk_airline_name", columnNames = "name")
 })
 public class Airline {
     @Id
@@ -25,25 +23,17 @@ public class Airline {
     private String name;
     private Integer planeCount;
     @JsonIgnore
-    @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
-    @JoinColumn(name = "airline_pending_id")
-    private Set<Flight> pendingFlights = new HashSet<>();
-    @JsonIgnore
-    @OneToMany(fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
-    @JoinColumn(name = "airline_departed_id")
-    private Set<Flight> departedFlights = new HashSet<>();
+    @Version
+    private Long version;
 
-    public Airline(String name, Integer planeCount) {
+    public Airline(Long id, String name, Integer planeCount) {
+        this.id = id;
         this.name = name;
         this.planeCount = planeCount;
     }
 
-    public void addPendingFlight(Flight flight) {
-        this.pendingFlights.add(flight);
-    }
-
-    public void addDepartedFlight(Flight flight) {
-        this.pendingFlights.remove(flight);
-        this.departedFlights.add(flight);
+    public Airline(String name, Integer planeCount) {
+        this.name = name;
+        this.planeCount = planeCount;
     }
 }
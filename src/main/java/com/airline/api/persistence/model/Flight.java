@@ -6,6 +6,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
@@ -18,22 +19,44 @@ import java.util.List;
 @NoArgsConstructor
 @EqualsAndHashCode(of = "id")
 @JsonInclude(JsonInclude.Include.NON_NULL)
+@Table(indexes = {
+        // Pending/departed listings of an airline are always filtered by both and sorted by etd
+        @Index(name = "idx_flight_airline_departed_etd", columnList = "airline_id, hasDeparted, etd"),
+        // Departed history export filters and sorts by departDate
+        @Index(name = "idx_flight_airline_departed_depart_date", columnList = "airline_id, hasDeparted, departDate"),
+        // Route search, narrowed to the departure window
+        @Index(name = "idx_flight_route_etd", columnList = "origin, destination, etd"),
+        @Index(name = "idx_flight_plane_etd", columnList = "plane_id, etd")
+})
 public class Flight {
+    // Pooled sequence so inserts can be JDBC batched, IDENTITY forces one round trip per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "flight_seq")
+    @SequenceGenerator(name = "flight_seq", allocationSize = 50)
     private Long id;
     private String origin;
     private String destination;
     private LocalDateTime etd;
     private LocalDateTime eta;
     private LocalDateTime departDate;
-    @OneToMany(cascade = CascadeType.MERGE)
-    @JoinColumn(name = "flight_id")
+    // Read-only view of the status log, which owns flight_id; only loaded when asked for
+    @OneToMany(fetch = FetchType.LAZY)
+    @JoinColumn(name = "flight_id", insertable = false, updatable = false)
+    @OrderBy("statusDate, id")
+    @BatchSize(size = 100)
     private List<FlightStatus> statuses = new ArrayList<>();
     private Boolean hasDeparted;
     @ManyToOne
     @JoinColumn(name = "plane_id")
     private Plane plane;
+    @JsonIgnore
+    @ManyToOne
+    @JoinColumn(name = "airline_id")
+    private Airline airline;
+    // Optimistic lock bumped by every change of the flight, drives its ETag and If-Match checks
+    @JsonIgnore
+    @Version
+    private Long version;
 
     public void addFlightStatus(FlightStatus flightStatus) {
         this.getStatuses().add(flightStatus);
@@ -43,12 +66,4 @@ public class Flight {
     public boolean isCorrectSchedule() {
         return this.eta.isAfter(this.etd);
     }
-
-    @JsonIgnore
-    public Airline getAirline() {
-        if (this.getPlane() != null)
-            return this.getPlane().getAirline();
-        else
-            return null;
-    }
 }
@@ -5,11 +5,9 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
 
-import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
+import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
@@ -17,11 +15,23 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @NoArgsConstructor
 @EqualsAndHashCode(of = "id")
+@Immutable
+@Table(indexes = {
+        // Append-only log, always read by flight and in date order
+        @Index(name = "idx_flight_status_flight_date", columnList = "flight_id, statusDate")
+})
 public class FlightStatus {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "flight_status_seq")
+    @SequenceGenerator(name = "flight_status_seq", allocationSize = 50)
     @JsonIgnore
     private Long id;
+    @JsonIgnore
+    @Column(name = "flight_id", nullable = false, updatable = false)
+    private Long flightId;
+    @Column(nullable = false, updatable = false)
     private LocalDateTime statusDate;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, updatable = false)
     private FlightStatusEnum status;
 }
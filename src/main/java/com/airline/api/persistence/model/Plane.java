@@ -13,7 +13,9 @@ import javax.persistence.*;
 @NoArgsConstructor
 @EqualsAndHashCode(of = "id")
 @Table(uniqueConstraints = {
-        @UniqueConstraint(columnNames = "registrationCode")
+        @UniqueConstraint(name = "uk_plane_registration_code", columnNames = "registrationCode")
+}, indexes = {
+        @Index(name = "idx_plane_airline", columnList = "airline_id")
 })
 public class Plane {
     @Id
@@ -1,9 +1,127 @@
 package com.airline.api.persistence.repositories;
 
+import com.airline.api.dto.FlightScheduleDto;
+import com.airline.api.dto.FlightStatusDto;
+import com.airline.api.dto.FlightSummaryDto;
 import com.airline.api.persistence.model.Flight;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
 @Repository
-public interface FlightRepository extends JpaRepository<Flight, Long> {
+public interface FlightRepository extends JpaRepository<Flight, Long>, FlightSearchRepository {
+    // Only the columns the read endpoints serialize, nothing is attached to the persistence context
+    String FLIGHT_SUMMARY = "select new com.airline.api.dto.FlightSummaryDto(f.id, f.origin, f.destination, f.etd, f.eta, " +
+            "f.departDate, f.hasDeparted, p.id, p.model, p.capacity, p.registrationCode, a.id, a.name, a.planeCount) " +
+            "from Flight f left join f.plane p left join p.airline a ";
+
+    @Query(FLIGHT_SUMMARY +
+            "where f.airline.id = :airlineId and f.hasDeparted = :hasDeparted " +
+            "order by f.etd, f.id")
+    List<FlightSummaryDto> findFlightSummaries(@Param("airlineId") Long airlineId, @Param("hasDeparted") Boolean hasDeparted);
+
+    @Query(FLIGHT_SUMMARY + "where f.id = :id")
+    FlightSummaryDto findFlightSummaryById(@Param("id") Long id);
+
+    @Query(FLIGHT_SUMMARY +
+            "where f.airline.id = :airlineId and f.hasDeparted = false " +
+            "order by f.etd, f.id")
+    List<FlightSummaryDto> findPendingFlightsPage(@Param("airlineId") Long airlineId, Pageable pageable);
+
+    @Query(FLIGHT_SUMMARY +
+            "where f.airline.id = :airlineId and f.hasDeparted = false " +
+            "and (f.etd > :etd or (f.etd = :etd and f.id > :id)) " +
+            "order by f.etd, f.id")
+    List<FlightSummaryDto> findPendingFlightsPageAfter(@Param("airlineId") Long airlineId, @Param("etd") LocalDateTime etd,
+                                                       @Param("id") Long id, Pageable pageable);
+
+    @Query("select new com.airline.api.dto.FlightStatusDto(f.hasDeparted, f.departDate) from Flight f where f.id = :id")
+    FlightStatusDto findFlightStatusById(@Param("id") Long id);
+
+    @Query("select f.id from Flight f where f.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    // Locked so two concurrent batches cannot depart the same flight twice
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select f.id from Flight f where f.id in :ids and f.hasDeparted = false order by f.id")
+    List<Long> lockPendingFlightIds(@Param("ids") Collection<Long> ids);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select f.id from Flight f " +
+            "where f.airline.id = :airlineId and f.hasDeparted = false and f.etd < :before " +
+            "order by f.etd, f.id")
+    List<Long> lockPendingFlightIdsBefore(@Param("airlineId") Long airlineId, @Param("before") LocalDateTime before);
+
+    // Single departures check and write in one statement, concurrent departures of the same flight update it once
+    @Modifying
+    @Query("update Flight f set f.hasDeparted = true, f.departDate = :departDate, f.version = f.version + 1 " +
+            "where f.id = :id and f.hasDeparted = false")
+    int departFlight(@Param("id") Long id, @Param("departDate") LocalDateTime departDate);
+
+    @Modifying
+    @Query("update Flight f set f.hasDeparted = true, f.departDate = :departDate, f.version = f.version + 1 " +
+            "where f.id = :id and f.hasDeparted = false and f.version in :versions")
+    int departFlightIfVersion(@Param("id") Long id, @Param("versions") Collection<Long> versions,
+                              @Param("departDate") LocalDateTime departDate);
+
+    @Modifying
+    @Query("update Flight f set f.hasDeparted = true, f.departDate = :departDate, f.version = f.version + 1 " +
+            "where f.id in :ids and f.hasDeparted = false")
+    int departFlights(@Param("ids") Collection<Long> ids, @Param("departDate") LocalDateTime departDate);
+
+    // Read through a cursor instead of a list, the departed history has no upper bound
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select f from Flight f left join fetch f.plane p left join fetch p.airline " +
+            "where f.airline.id = :airlineId and f.hasDeparted = true " +
+            "and (:from is null or f.departDate >= :from) and (:to is null or f.departDate < :to) " +
+            "order by f.departDate, f.id")
+    Stream<Flight> streamDepartedFlights(@Param("airlineId") Long airlineId, @Param("from") LocalDateTime from,
+                                         @Param("to") LocalDateTime to);
+
+    @Query("select count(f) from Flight f where f.airline.id = :airlineId and f.hasDeparted = :hasDeparted")
+    long countFlights(@Param("airlineId") Long airlineId, @Param("hasDeparted") Boolean hasDeparted);
+
+    // Flushing would write the flight being reserved before it is checked, it is checked against the committed rows
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FLUSH_MODE, value = "COMMIT"))
+    @Query("select new com.airline.api.dto.FlightScheduleDto(f.id, f.etd, f.eta) from Flight f " +
+            "where f.plane.id = :planeId and f.eta > :after")
+    List<FlightScheduleDto> findSchedulesByPlaneIdArrivingAfter(@Param("planeId") Long planeId, @Param("after") LocalDateTime after);
+
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FLUSH_MODE, value = "COMMIT"))
+    @Query("select count(f) > 0 from Flight f where f.plane.id = :planeId and f.etd < :eta and f.eta > :etd " +
+            "and (:flightId is null or f.id <> :flightId)")
+    boolean existsOverlappingSchedule(@Param("planeId") Long planeId, @Param("etd") LocalDateTime etd,
+                                      @Param("eta") LocalDateTime eta, @Param("flightId") Long flightId);
+
+    @Query("select new com.airline.api.dto.FlightScheduleDto(f.id, f.etd, f.eta) from Flight f where f.hasDeparted = false " +
+            "order by f.etd, f.id")
+    List<FlightScheduleDto> findPendingSchedules(Pageable pageable);
+
+    @Query("select new com.airline.api.dto.FlightScheduleDto(f.id, f.etd, f.eta) from Flight f where f.hasDeparted = false " +
+            "and (f.etd > :etd or (f.etd = :etd and f.id > :id)) " +
+            "order by f.etd, f.id")
+    List<FlightScheduleDto> findPendingSchedulesAfter(@Param("etd") LocalDateTime etd, @Param("id") Long id, Pageable pageable);
+
+    @Query("select f.version from Flight f where f.id = :id")
+    Long findVersionById(@Param("id") Long id);
+
+    // Count plus the sum of a product of two linear mixes of (id, version) modulo a prime: plain sums of IDs and
+    // versions cancel out (departing 3 and 7 after deleting 4 and 6), the product makes that practically impossible
+    @Query("select concat(str(count(f)), '-', str(coalesce(sum(mod(" +
+            "mod(f.id * 40503 + f.version, 2147483647) * mod(f.id * 65599 + f.version * 31 + 12345, 2147483629), " +
+            "2147483647)), 0))) from Flight f " +
+            "where f.airline.id = :airlineId and f.hasDeparted = :hasDeparted")
+    String findVersionSummary(@Param("airlineId") Long airlineId, @Param("hasDeparted") Boolean hasDeparted);
 }
@@ -0,0 +1,11 @@
+package com.airline.api.persistence.repositories;
+
+import com.airline.api.dto.FlightSearchDto;
+import com.airline.api.dto.FlightSummaryDto;
+import com.airline.api.utils.FlightCursor;
+
+import java.util.List;
+
+public interface FlightSearchRepository {
+    List<FlightSummaryDto> searchFlights(Long airlineId, FlightSearchDto search, FlightCursor after, int limit);
+}
@@ -0,0 +1,62 @@
+package com.airline.api.persistence.repositories;
+
+import com.airline.api.dto.FlightSearchDto;
+import com.airline.api.dto.FlightSummaryDto;
+import com.airline.api.utils.FlightCursor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FlightSearchRepositoryImpl implements FlightSearchRepository {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Only the given filters are added, so every combination gets a plain query that can use its index
+    // instead of one "(:param is null or ...)" query that the planner has to scan
+    @Override
+    public List<FlightSummaryDto> searchFlights(Long airlineId, FlightSearchDto search, FlightCursor after, int limit) {
+        StringBuilder jpql = new StringBuilder(FlightRepository.FLIGHT_SUMMARY).append("where f.airline.id = :airlineId ");
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("airlineId", airlineId);
+
+        if (search.getOrigin() != null) {
+            jpql.append("and f.origin = :origin ");
+            parameters.put("origin", search.getOrigin());
+        }
+        if (search.getDestination() != null) {
+            jpql.append("and f.destination = :destination ");
+            parameters.put("destination", search.getDestination());
+        }
+        if (search.getFrom() != null) {
+            jpql.append("and f.etd >= :from ");
+            parameters.put("from", search.getFrom());
+        }
+        if (search.getTo() != null) {
+            jpql.append("and f.etd < :to ");
+            parameters.put("to", search.getTo());
+        }
+        if (search.getDeparted() != null) {
+            jpql.append("and f.hasDeparted = :departed ");
+            parameters.put("departed", search.getDeparted());
+        }
+        if (search.getPlaneId() != null) {
+            jpql.append("and f.plane.id = :planeId ");
+            parameters.put("planeId", search.getPlaneId());
+        }
+        if (after != null) {
+            jpql.append("and (f.etd > :afterEtd or (f.etd = :afterEtd and f.id > :afterId)) ");
+            parameters.put("afterEtd", after.getEtd());
+            parameters.put("afterId", after.getId());
+        }
+        jpql.append("order by f.etd, f.id");
+
+        TypedQuery<FlightSummaryDto> query = this.entityManager.createQuery(jpql.toString(), FlightSummaryDto.class)
+                .setMaxResults(limit);
+        parameters.forEach(query::setParameter);
+        return query.getResultList();
+    }
+}
@@ -2,8 +2,22 @@ package com.airline.api.persistence.repositories;
 
 import com.airline.api.persistence.model.FlightStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface FlightStatusRepository extends JpaRepository<FlightStatus, Long> {
+    @Modifying
+    @Query("delete from FlightStatus s where s.flightId = :flightId")
+    void deleteByFlightId(@Param("flightId") Long flightId);
+
+    @Query("select s from FlightStatus s where s.flightId in :flightIds order by s.statusDate, s.id")
+    List<FlightStatus> findByFlightIdIn(@Param("flightIds") Collection<Long> flightIds);
+
+    FlightStatus findFirstByFlightIdOrderByStatusDateDescIdDesc(Long flightId);
 }
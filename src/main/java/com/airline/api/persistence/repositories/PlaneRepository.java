@@ -2,9 +2,17 @@ package com.airline.api.persistence.repositories;
 
 import com.airline.api.persistence.model.Plane;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface PlaneRepository extends JpaRepository<Plane, Long> {
     Plane findByRegistrationCode(String registrationCode);
+
+    @Query("select p from Plane p left join fetch p.airline where p.registrationCode in :registrationCodes")
+    List<Plane> findByRegistrationCodeIn(@Param("registrationCodes") Collection<String> registrationCodes);
 }
@@ -1,24 +1,41 @@
 package com.airline.api.services;
 
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.cache.ReferenceDataCache;
 import com.airline.api.context.GlobalConfig;
 import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.DepartFlightsDto;
+import com.airline.api.dto.FlightDepartureDto;
+import com.airline.api.dto.FlightPageDto;
+import com.airline.api.dto.FlightSearchDto;
 import com.airline.api.dto.FlightStatusDto;
+import com.airline.api.dto.FlightSummaryDto;
 import com.airline.api.dto.UpdateFlightDto;
+import com.airline.api.events.FlightEvent;
+import com.airline.api.events.FlightEventType;
 import com.airline.api.exceptions.BadRequestException;
 import com.airline.api.exceptions.DepartedFlightException;
 import com.airline.api.exceptions.EntityNotFoundException;
+import com.airline.api.exceptions.PreconditionFailedException;
+import com.airline.api.mappers.FlightMapper;
 import com.airline.api.persistence.model.*;
 import com.airline.api.persistence.repositories.AirlineRepository;
 import com.airline.api.persistence.repositories.FlightRepository;
 import com.airline.api.persistence.repositories.FlightStatusRepository;
 import com.airline.api.persistence.repositories.PlaneRepository;
+import com.airline.api.utils.FlightCursor;
+import com.airline.api.utils.FlightETag;
 import lombok.AllArgsConstructor;
-import org.modelmapper.ModelMapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Clock;
 import java.time.LocalDateTime;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
 
 @AllArgsConstructor
 @Service
@@ -27,54 +44,153 @@ public class AirlineServiceImpl {
     private final PlaneRepository planeRepository;
     private final FlightRepository flightRepository;
     private final FlightStatusRepository flightStatusRepository;
-    private final ModelMapper modelmapper;
+    private final FlightMapper flightMapper;
+    private final ReferenceDataCache referenceDataCache;
+    private final PlaneScheduleIndex planeScheduleIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Clock clock;
 
-    private FlightStatus createFlightStatus(LocalDateTime dateTime, FlightStatusEnum flightStatusEnum) {
-        return this.flightStatusRepository.save(new FlightStatus(null, dateTime, flightStatusEnum));
+    private FlightStatus createFlightStatus(Long flightId, LocalDateTime dateTime, FlightStatusEnum flightStatusEnum) {
+        return this.flightStatusRepository.save(new FlightStatus(null, flightId, dateTime, flightStatusEnum));
+    }
+
+    private Plane findPlaneByRegistrationCode(String registrationCode) {
+        Plane plane = this.referenceDataCache.getPlane(registrationCode, this.planeRepository::findByRegistrationCode);
+        if (plane == null)
+            throw new EntityNotFoundException("Cannot find plane with registration code: " + registrationCode);
+        return plane;
     }
 
     public Airline getAirline() {
-        Airline airline = this.airlineRepository.findByNameIgnoreCase(GlobalConfig.AIRLINE_NAME);
+        Airline airline = this.referenceDataCache.getAirline(GlobalConfig.AIRLINE_NAME, this.airlineRepository::findByNameIgnoreCase);
         if (airline == null)
             throw new EntityNotFoundException("Cannot find airline with name: " + GlobalConfig.AIRLINE_NAME);
         return airline;
     }
 
-    public Set<Flight> getPendingFlights() {
-        return this.getAirline().getPendingFlights();
+    private Long getAirlineId() {
+        return this.getAirline().getId();
+    }
+
+    @Transactional(readOnly = true)
+    public List<FlightSummaryDto> getPendingFlights() {
+        return this.getPendingFlights(false);
+    }
+
+    @Transactional(readOnly = true)
+    public List<FlightSummaryDto> getPendingFlights(boolean includeStatuses) {
+        return this.addStatuses(this.flightRepository.findFlightSummaries(this.getAirlineId(), false), includeStatuses);
+    }
+
+    // The status history is read in one query per MAX_IN_LIST_SIZE flights, only when asked for
+    private List<FlightSummaryDto> addStatuses(List<FlightSummaryDto> flights, boolean includeStatuses) {
+        if (!includeStatuses)
+            return flights;
+
+        for (int from = 0; from < flights.size(); from += GlobalConfig.MAX_IN_LIST_SIZE) {
+            List<FlightSummaryDto> chunk = flights.subList(from, Math.min(from + GlobalConfig.MAX_IN_LIST_SIZE, flights.size()));
+            Map<Long, List<FlightStatus>> statuses = this.flightStatusRepository
+                    .findByFlightIdIn(chunk.stream().map(FlightSummaryDto::getId).collect(Collectors.toList()))
+                    .stream()
+                    .collect(Collectors.groupingBy(FlightStatus::getFlightId));
+            chunk.forEach(flight -> flight.setStatuses(statuses.getOrDefault(flight.getId(), new ArrayList<>())));
+        }
+        return flights;
+    }
+
+    @Transactional(readOnly = true)
+    public FlightPageDto getPendingFlightsPage(int size, String after) {
+        if (size < 1 || size > GlobalConfig.MAX_PAGE_SIZE)
+            throw new BadRequestException("size must be between 1 and " + GlobalConfig.MAX_PAGE_SIZE);
+
+        Long airlineId = this.getAirlineId();
+        // One extra row tells whether there is a next page without a count query
+        Pageable limit = PageRequest.of(0, size + 1);
+        List<FlightSummaryDto> flights;
+        if (after == null) {
+            flights = this.flightRepository.findPendingFlightsPage(airlineId, limit);
+        } else {
+            FlightCursor cursor = FlightCursor.decode(after);
+            flights = this.flightRepository.findPendingFlightsPageAfter(airlineId, cursor.getEtd(), cursor.getId(), limit);
+        }
+
+        return this.flightMapper.toFlightPageDto(flights, size);
+    }
+
+    @Transactional(readOnly = true)
+    public FlightPageDto searchFlights(FlightSearchDto search, String planeRegistrationCode, int size, String after) {
+        if (size < 1 || size > GlobalConfig.MAX_PAGE_SIZE)
+            throw new BadRequestException("size must be between 1 and " + GlobalConfig.MAX_PAGE_SIZE);
+        if (search.getFrom() != null && search.getTo() != null && !search.getFrom().isBefore(search.getTo()))
+            throw new BadRequestException("from must be before to");
+
+        Long airlineId = this.getAirlineId();
+        if (planeRegistrationCode != null)
+            search.setPlaneId(this.findPlaneByRegistrationCode(planeRegistrationCode).getId());
+        FlightCursor cursor = after == null ? null : FlightCursor.decode(after);
+        // One extra row tells whether there is a next page without a count query
+        List<FlightSummaryDto> flights = this.flightRepository.searchFlights(airlineId, search, cursor, size + 1);
+
+        return this.flightMapper.toFlightPageDto(flights, size);
     }
 
+    @Transactional
     public Flight addFlight(CreateFlightDto flightDTO) {
-        Flight flight = modelmapper.map(flightDTO, Flight.class);
+        Flight flight = this.flightMapper.toFlight(flightDTO);
         if (!flight.isCorrectSchedule())
             throw new BadRequestException("Estimated date of departure (etd) must be before the estimated date of arrival (eta)");
 
-        Plane plane = this.planeRepository.findByRegistrationCode(flightDTO.getPlaneRegistrationCode());
-        if (plane == null)
-            throw new EntityNotFoundException("Cannot find plane with registration code: " + flightDTO.getPlaneRegistrationCode());
-
-        flight.setPlane(plane);
-
-        Airline airline = flight.getAirline();
+        Plane plane = this.findPlaneByRegistrationCode(flightDTO.getPlaneRegistrationCode());
+        Airline airline = plane.getAirline();
         if (airline == null)
             throw new EntityNotFoundException("Cannot find the flight airline from the plane");
 
+        flight.setPlane(plane);
+        flight.setAirline(airline);
         flight.setHasDeparted(false);
-        flight.addFlightStatus(this.createFlightStatus(LocalDateTime.now(), FlightStatusEnum.PENDING));
-        Flight flightCreated = this.flightRepository.save(flight);
-        airline.addPendingFlight(flightCreated);
-        this.airlineRepository.save(airline);
-
-        return flightCreated;
+        this.planeScheduleIndex.reserve(plane, flight);
+        flight = this.flightRepository.save(flight);
+        LocalDateTime now = LocalDateTime.now(this.clock);
+        flight.addFlightStatus(this.createFlightStatus(flight.getId(), now, FlightStatusEnum.PENDING));
+        this.eventPublisher.publishEvent(FlightEvent.of(FlightEventType.CREATED, flight, now));
+        return flight;
     }
 
     public Flight findFlightById(Long id) {
         return this.flightRepository.findById(id).orElseThrow(() -> new EntityNotFoundException("Cannot find flight with ID: " + id));
     }
 
+    // The version read is the one checked on flush, so a writer in between still fails with an optimistic lock conflict
+    private Flight findFlightById(Long id, String ifMatch) {
+        Flight flight = this.findFlightById(id);
+        if (!FlightETag.matches(ifMatch, flight.getId(), flight.getVersion()))
+            throw new PreconditionFailedException(flight.getId());
+        return flight;
+    }
+
+    @Transactional(readOnly = true)
+    public FlightSummaryDto findFlightSummaryById(Long id, boolean includeStatuses) {
+        FlightSummaryDto flight = this.flightRepository.findFlightSummaryById(id);
+        if (flight == null)
+            throw new EntityNotFoundException("Cannot find flight with ID: " + id);
+        return this.addStatuses(Collections.singletonList(flight), includeStatuses).get(0);
+    }
+
+    @Transactional(readOnly = true)
+    public void checkFlightExists(Long id) {
+        if (!this.flightRepository.existsById(id))
+            throw new EntityNotFoundException("Cannot find flight with ID: " + id);
+    }
+
     @Transactional
     public void updateFlightById(Long id, UpdateFlightDto flightDTO) {
-        Flight flight = this.findFlightById(id);
+        this.updateFlightById(id, flightDTO, null);
+    }
+
+    @Transactional
+    public void updateFlightById(Long id, UpdateFlightDto flightDTO, String ifMatch) {
+        Flight flight = this.findFlightById(id, ifMatch);
+        Long previousPlaneId = flight.getPlane().getId();
         String originUpdate = flightDTO.getOrigin();
         if (originUpdate != null) {
             if (originUpdate.isBlank())
@@ -105,59 +221,168 @@ public class AirlineServiceImpl {
 
         String registrationCodeUpdate = flightDTO.getPlaneRegistrationCode();
         if (registrationCodeUpdate != null) {
-            Plane plane = this.planeRepository.findByRegistrationCode(registrationCodeUpdate);
-            if (plane == null)
-                throw new EntityNotFoundException("Cannot find plane with registration code: " + flightDTO.getPlaneRegistrationCode());
-            flight.setPlane(plane);
-
-            if (flight.getAirline() == null)
+            Plane plane = this.findPlaneByRegistrationCode(registrationCodeUpdate);
+            if (plane.getAirline() == null)
                 throw new EntityNotFoundException("Cannot find the flight airline from the plane");
+
+            flight.setPlane(plane);
+            flight.setAirline(plane.getAirline());
         }
 
-        this.flightRepository.save(flight);
+        if (etdUpdate != null || etaUpdate != null || registrationCodeUpdate != null) {
+            this.planeScheduleIndex.reserve(flight.getPlane(), flight);
+            if (!previousPlaneId.equals(flight.getPlane().getId()))
+                this.planeScheduleIndex.release(previousPlaneId, flight.getId());
+        }
+        this.flightRepository.saveAndFlush(flight);
+        this.eventPublisher.publishEvent(FlightEvent.of(FlightEventType.UPDATED, flight, LocalDateTime.now(this.clock)));
     }
 
+    @Transactional
     public void deleteFlightById(Long id) {
-        this.flightRepository.delete(this.findFlightById(id));
+        this.deleteFlightById(id, null);
+    }
+
+    @Transactional
+    public void deleteFlightById(Long id, String ifMatch) {
+        Flight flight = this.findFlightById(id, ifMatch);
+        this.flightStatusRepository.deleteByFlightId(flight.getId());
+        this.flightRepository.delete(flight);
+        this.planeScheduleIndex.release(flight.getPlane().getId(), flight.getId());
+        this.eventPublisher.publishEvent(FlightEvent.of(FlightEventType.DELETED, flight, LocalDateTime.now(this.clock)));
+    }
+
+    @Transactional(readOnly = true)
+    public List<FlightSummaryDto> getDepartedFlights() {
+        return this.getDepartedFlights(false);
+    }
+
+    @Transactional(readOnly = true)
+    public List<FlightSummaryDto> getDepartedFlights(boolean includeStatuses) {
+        return this.addStatuses(this.flightRepository.findFlightSummaries(this.getAirlineId(), true), includeStatuses);
+    }
+
+    @Transactional(readOnly = true)
+    public FlightStatus getLatestFlightStatus(Long id) {
+        FlightStatus flightStatus = this.flightStatusRepository.findFirstByFlightIdOrderByStatusDateDescIdDesc(id);
+        if (flightStatus == null)
+            throw new EntityNotFoundException("Cannot find flight with ID: " + id);
+        return flightStatus;
+    }
+
+    // Strong ETags built without loading the flights, so unchanged resources can be answered with a 304 right away
+    @Transactional(readOnly = true)
+    public String getFlightETag(Long id) {
+        Long version = this.flightRepository.findVersionById(id);
+        if (version == null)
+            throw new EntityNotFoundException("Cannot find flight with ID: " + id);
+        return FlightETag.of(id, version);
+    }
+
+    @Transactional(readOnly = true)
+    public String getPendingFlightsETag() {
+        return "\"" + this.flightRepository.findVersionSummary(this.getAirlineId(), false) + "\"";
     }
 
-    public Set<Flight> getDepartedFlights() {
-        return this.getAirline().getDepartedFlights();
+    @Transactional(readOnly = true)
+    public String getDepartedFlightsETag() {
+        return "\"" + this.flightRepository.findVersionSummary(this.getAirlineId(), true) + "\"";
     }
 
+    @Transactional(readOnly = true)
     public FlightStatusDto getFlightStatus(Long id) {
-        Flight flight = this.findFlightById(id);
-        if (flight.getHasDeparted()) {
-            return modelmapper.map(flight, FlightStatusDto.class);
-        }
-        return new FlightStatusDto(false, null);
+        FlightStatusDto flightStatus = this.flightRepository.findFlightStatusById(id);
+        if (flightStatus == null)
+            throw new EntityNotFoundException("Cannot find flight with ID: " + id);
+        return flightStatus;
     }
 
     @Transactional
     public void departFlight(Long id) {
-        Flight flight = this.findFlightById(id);
-        // Flight must have an airline, cannot be null
-        Airline airline = flight.getAirline();
+        this.departFlight(id, null);
+    }
+
+    // One conditional update plus the status insert, the flight is only read again to explain why nothing was updated
+    @Transactional
+    public void departFlight(Long id, String ifMatch) {
+        LocalDateTime departDate = LocalDateTime.now(this.clock);
+        List<Long> versions = FlightETag.versions(ifMatch, id);
+        int departed;
+        if (versions == null)
+            departed = this.flightRepository.departFlight(id, departDate);
+        else
+            departed = versions.isEmpty() ? 0 : this.flightRepository.departFlightIfVersion(id, versions, departDate);
 
-        if (flight.getHasDeparted())
-            throw new DepartedFlightException(flight.getId());
+        if (departed == 0) {
+            FlightStatusDto flightStatus = this.flightRepository.findFlightStatusById(id);
+            if (flightStatus == null)
+                throw new EntityNotFoundException("Cannot find flight with ID: " + id);
+            if (flightStatus.getHasDeparted())
+                throw new DepartedFlightException(id);
+            throw new PreconditionFailedException(id);
+        }
+
+        this.createFlightStatus(id, departDate, FlightStatusEnum.DEPARTED);
+        this.eventPublisher.publishEvent(new FlightEvent(id, FlightEventType.DEPARTED, true, null, departDate, departDate));
+    }
+
+    // Departs every pending flight of the batch with set-based statements, already departed/missing IDs are only reported
+    @Transactional
+    public FlightDepartureDto departFlights(DepartFlightsDto departFlightsDto) {
+        List<Long> ids = departFlightsDto.getIds();
+        LocalDateTime before = departFlightsDto.getBefore();
+        if ((ids == null) == (before == null))
+            throw new BadRequestException("Either ids or before must be given");
 
-        flight.setHasDeparted(true);
-        flight.addFlightStatus(this.createFlightStatus(LocalDateTime.now(), FlightStatusEnum.DEPARTED));
-        flight.setDepartDate(LocalDateTime.now());
-        airline.addDepartedFlight(flight);
+        List<Long> pendingIds;
+        List<Long> alreadyDepartedIds = new ArrayList<>();
+        List<Long> notFoundIds = new ArrayList<>();
+        if (ids != null) {
+            if (ids.isEmpty() || ids.size() > GlobalConfig.MAX_DEPART_BATCH_SIZE)
+                throw new BadRequestException("ids must contain between 1 and " + GlobalConfig.MAX_DEPART_BATCH_SIZE + " flights");
+            if (ids.contains(null))
+                throw new BadRequestException("ids cannot contain null values");
+
+            Set<Long> requestedIds = new LinkedHashSet<>(ids);
+            pendingIds = this.flightRepository.lockPendingFlightIds(requestedIds);
+            Set<Long> pendingIdSet = new HashSet<>(pendingIds);
+            Set<Long> existingIds = new HashSet<>(this.flightRepository.findExistingIds(requestedIds));
+            for (Long id : requestedIds) {
+                if (pendingIdSet.contains(id))
+                    continue;
+                if (existingIds.contains(id))
+                    alreadyDepartedIds.add(id);
+                else
+                    notFoundIds.add(id);
+            }
+        } else {
+            pendingIds = this.flightRepository.lockPendingFlightIdsBefore(this.getAirlineId(), before);
+        }
+
+        LocalDateTime departDate = LocalDateTime.now(this.clock);
+        List<FlightStatus> statuses = new ArrayList<>(pendingIds.size());
+        for (int from = 0; from < pendingIds.size(); from += GlobalConfig.MAX_DEPART_BATCH_SIZE) {
+            List<Long> chunk = pendingIds.subList(from, Math.min(from + GlobalConfig.MAX_DEPART_BATCH_SIZE, pendingIds.size()));
+            this.flightRepository.departFlights(chunk, departDate);
+            chunk.forEach(id -> statuses.add(new FlightStatus(null, id, departDate, FlightStatusEnum.DEPARTED)));
+        }
+        this.flightStatusRepository.saveAll(statuses);
+        pendingIds.forEach(id -> this.eventPublisher.publishEvent(new FlightEvent(id, FlightEventType.DEPARTED, true, null, departDate, departDate)));
 
-        this.flightRepository.save(flight);
-        this.airlineRepository.save(airline);
+        return new FlightDepartureDto(pendingIds, alreadyDepartedIds, notFoundIds);
     }
 
     //Only testing purpose
     public Airline createAirline(Airline airline) {
-        return this.airlineRepository.save(airline);
+        Airline airlineCreated = this.airlineRepository.save(airline);
+        this.referenceDataCache.invalidateAirlines();
+        return airlineCreated;
     }
 
     //Only testing purpose
     public Plane createPlane(Plane plane) {
-        return this.planeRepository.save(plane);
+        Plane planeCreated = this.planeRepository.save(plane);
+        this.referenceDataCache.invalidatePlanes();
+        return planeCreated;
     }
 }
@@ -0,0 +1,167 @@
+package com.airline.api.services;
+
+import com.airline.api.context.GlobalConfig;
+import com.airline.api.dto.DepartFlightsDto;
+import com.airline.api.dto.FlightDepartureDto;
+import com.airline.api.dto.FlightScheduleDto;
+import com.airline.api.events.FlightEvent;
+import com.airline.api.events.FlightEventType;
+import com.airline.api.persistence.repositories.FlightRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.*;
+
+// Departs pending flights once their etd plus the grace has passed. Pending flights are kept ordered by etd, loaded
+// page by page at startup and kept up to date with the flight events, so a tick only looks at the head of the queue
+// and the database is only touched when there is something to depart.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "airline.departure.scheduler.enabled", havingValue = "true")
+public class DepartureScheduler implements DisposableBean {
+    private static final Comparator<Departure> BY_ETD = Comparator.<Departure, LocalDateTime>comparing(departure -> departure.etd)
+            .thenComparing(departure -> departure.flightId);
+
+    private final AirlineServiceImpl airlineService;
+    private final FlightRepository flightRepository;
+    private final Clock clock;
+    private final Duration grace;
+    private final Duration interval;
+    private final int batchSize;
+    private final NavigableSet<Departure> queue = new ConcurrentSkipListSet<>(BY_ETD);
+    private final Map<Long, Departure> byFlight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    public DepartureScheduler(AirlineServiceImpl airlineService, FlightRepository flightRepository, Clock clock,
+                              MeterRegistry meterRegistry,
+                              @Value("${airline.departure.scheduler.grace}") Duration grace,
+                              @Value("${airline.departure.scheduler.interval}") Duration interval,
+                              @Value("${airline.departure.scheduler.batch-size}") int batchSize) {
+        if (batchSize < 1 || batchSize > GlobalConfig.MAX_DEPART_BATCH_SIZE)
+            throw new IllegalStateException("airline.departure.scheduler.batch-size must be between 1 and " + GlobalConfig.MAX_DEPART_BATCH_SIZE);
+
+        this.airlineService = airlineService;
+        this.flightRepository = flightRepository;
+        this.clock = clock;
+        this.grace = grace;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "departure-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("airline.departure.scheduler.pending", this.byFlight, Map::size)
+                .description("Pending flights waiting to be departed by the scheduler")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        this.loadPendingFlights();
+        this.executor.scheduleWithFixedDelay(this::tick, this.interval.toMillis(), this.interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Events committed while loading may be applied before an older page, a stale entry is dropped when it is departed
+    public void loadPendingFlights() {
+        List<FlightScheduleDto> page = this.flightRepository.findPendingSchedules(PageRequest.of(0, this.batchSize));
+        while (!page.isEmpty()) {
+            page.forEach(flight -> this.schedule(flight.getId(), flight.getEtd()));
+            FlightScheduleDto last = page.get(page.size() - 1);
+            page = this.flightRepository.findPendingSchedulesAfter(last.getEtd(), last.getId(), PageRequest.of(0, this.batchSize));
+        }
+        log.info("Departure scheduler loaded {} pending flights", this.byFlight.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFlightEvent(FlightEvent event) {
+        if (event.getType() == FlightEventType.CREATED || event.getType() == FlightEventType.UPDATED) {
+            if (!Boolean.TRUE.equals(event.getHasDeparted()))
+                this.schedule(event.getFlightId(), event.getEtd());
+        } else {
+            this.unschedule(event.getFlightId());
+        }
+    }
+
+    // A failed batch is retried on the next tick
+    private void tick() {
+        try {
+            this.departDueFlights();
+        } catch (RuntimeException e) {
+            log.error("Departure scheduler could not depart the due flights", e);
+        }
+    }
+
+    public void departDueFlights() {
+        LocalDateTime dueBefore = LocalDateTime.now(this.clock).minus(this.grace);
+        List<Long> ids = this.dueFlightIds(dueBefore);
+        while (!ids.isEmpty()) {
+            FlightDepartureDto departure = this.airlineService.departFlights(new DepartFlightsDto(ids, null));
+            log.info("Departure scheduler departed {} flights, {} had already departed and {} were not found",
+                    departure.getDeparted().size(), departure.getAlreadyDeparted().size(), departure.getNotFound().size());
+            // Departed flights are already gone through their events, the rest changed through another instance
+            ids.forEach(this::unschedule);
+            ids = this.dueFlightIds(dueBefore);
+        }
+    }
+
+    private List<Long> dueFlightIds(LocalDateTime dueBefore) {
+        List<Long> ids = new ArrayList<>(this.batchSize);
+        for (Departure departure : this.queue) {
+            if (!departure.etd.isBefore(dueBefore) || ids.size() == this.batchSize)
+                break;
+            ids.add(departure.flightId);
+        }
+        return ids;
+    }
+
+    private void schedule(Long flightId, LocalDateTime etd) {
+        Departure departure = new Departure(flightId, etd);
+        this.byFlight.compute(flightId, (id, previous) -> {
+            if (previous != null)
+                this.queue.remove(previous);
+            this.queue.add(departure);
+            return departure;
+        });
+    }
+
+    private void unschedule(Long flightId) {
+        this.byFlight.computeIfPresent(flightId, (id, previous) -> {
+            this.queue.remove(previous);
+            return null;
+        });
+    }
+
+    public boolean isScheduled(Long flightId) {
+        return this.byFlight.containsKey(flightId);
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    @AllArgsConstructor
+    private static class Departure {
+        private final Long flightId;
+        private final LocalDateTime etd;
+    }
+}
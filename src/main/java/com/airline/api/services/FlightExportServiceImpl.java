@@ -0,0 +1,99 @@
+package com.airline.api.services;
+
+import com.airline.api.exceptions.BadRequestException;
+import com.airline.api.persistence.model.Flight;
+import com.airline.api.persistence.model.FlightStatus;
+import com.airline.api.persistence.repositories.FlightRepository;
+import com.airline.api.persistence.repositories.FlightStatusRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Service
+public class FlightExportServiceImpl {
+    private final AirlineServiceImpl airlineService;
+    private final FlightRepository flightRepository;
+    private final FlightStatusRepository flightStatusRepository;
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int chunkSize;
+
+    public FlightExportServiceImpl(AirlineServiceImpl airlineService, FlightRepository flightRepository,
+                                   FlightStatusRepository flightStatusRepository, ObjectMapper objectMapper,
+                                   EntityManager entityManager, PlatformTransactionManager transactionManager,
+                                   @Value("${airline.export.chunk-size}") int chunkSize) {
+        this.airlineService = airlineService;
+        this.flightRepository = flightRepository;
+        this.flightStatusRepository = flightStatusRepository;
+        this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.chunkSize = chunkSize;
+    }
+
+    // Checks run before the body is returned, once streaming starts the status can no longer change
+    public StreamingResponseBody exportDepartedFlights(LocalDateTime from, LocalDateTime to) {
+        if (from != null && to != null && !from.isBefore(to))
+            throw new BadRequestException("from must be before to");
+
+        Long airlineId = this.airlineService.getAirline().getId();
+        return outputStream -> this.readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<Flight> flights = this.flightRepository.streamDepartedFlights(airlineId, from, to)) {
+                this.writeNdjson(flights.iterator(), outputStream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Flights are written one chunk at a time and cleared from the persistence context, so heap use does not grow with the history
+    private void writeNdjson(Iterator<Flight> flights, OutputStream outputStream) throws IOException {
+        JsonGenerator generator = this.objectMapper.getFactory().createGenerator(outputStream);
+        // Values are separated by the newlines written after them, the default space would start every other line
+        generator.setRootValueSeparator(null);
+        List<Flight> chunk = new ArrayList<>(this.chunkSize);
+        while (flights.hasNext()) {
+            chunk.add(flights.next());
+            if (chunk.size() == this.chunkSize) {
+                this.writeChunk(chunk, generator);
+                chunk.clear();
+            }
+        }
+        this.writeChunk(chunk, generator);
+        generator.close();
+    }
+
+    private void writeChunk(List<Flight> chunk, JsonGenerator generator) throws IOException {
+        if (chunk.isEmpty())
+            return;
+
+        // One query for the statuses of the whole chunk instead of one lazy load per flight
+        Map<Long, List<FlightStatus>> statuses = this.flightStatusRepository
+                .findByFlightIdIn(chunk.stream().map(Flight::getId).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.groupingBy(FlightStatus::getFlightId));
+        this.entityManager.clear();
+
+        for (Flight flight : chunk) {
+            flight.setStatuses(statuses.getOrDefault(flight.getId(), Collections.emptyList()));
+            this.objectMapper.writeValue(generator, flight);
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+    }
+}
@@ -0,0 +1,182 @@
+package com.airline.api.services;
+
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.FlightImportDto;
+import com.airline.api.dto.FlightImportRowDto;
+import com.airline.api.events.FlightEvent;
+import com.airline.api.events.FlightEventType;
+import com.airline.api.exceptions.BadRequestException;
+import com.airline.api.exceptions.PlaneUnavailableException;
+import com.airline.api.mappers.FlightMapper;
+import com.airline.api.persistence.model.Flight;
+import com.airline.api.persistence.model.FlightStatus;
+import com.airline.api.persistence.model.FlightStatusEnum;
+import com.airline.api.persistence.model.Plane;
+import com.airline.api.persistence.repositories.FlightRepository;
+import com.airline.api.persistence.repositories.FlightStatusRepository;
+import com.airline.api.persistence.repositories.PlaneRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Service
+public class FlightImportServiceImpl {
+    private final PlaneRepository planeRepository;
+    private final FlightRepository flightRepository;
+    private final FlightStatusRepository flightStatusRepository;
+    private final FlightMapper flightMapper;
+    private final PlaneScheduleIndex planeScheduleIndex;
+    private final Validator validator;
+    private final EntityManager entityManager;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Clock clock;
+    private final int chunkSize;
+    private final int maxRows;
+
+    public FlightImportServiceImpl(PlaneRepository planeRepository, FlightRepository flightRepository,
+                                   FlightStatusRepository flightStatusRepository, FlightMapper flightMapper, PlaneScheduleIndex planeScheduleIndex,
+                                   Validator validator, EntityManager entityManager, ApplicationEventPublisher eventPublisher, Clock clock,
+                                   @Value("${airline.import.chunk-size}") int chunkSize,
+                                   @Value("${airline.import.max-rows}") int maxRows) {
+        this.planeRepository = planeRepository;
+        this.flightRepository = flightRepository;
+        this.flightStatusRepository = flightStatusRepository;
+        this.flightMapper = flightMapper;
+        this.planeScheduleIndex = planeScheduleIndex;
+        this.validator = validator;
+        this.entityManager = entityManager;
+        this.eventPublisher = eventPublisher;
+        this.clock = clock;
+        this.chunkSize = chunkSize;
+        this.maxRows = maxRows;
+    }
+
+    // Rows are read, validated and inserted chunk by chunk so big imports are never fully held in memory
+    @Transactional
+    public FlightImportDto importFlights(MappingIterator<CreateFlightDto> flightDtos) {
+        List<FlightImportRowDto> rows = new ArrayList<>();
+        Map<String, Plane> planes = new HashMap<>();
+        List<CreateFlightDto> chunk = new ArrayList<>(this.chunkSize);
+        while (this.hasNextRow(flightDtos, rows.size() + chunk.size())) {
+            if (rows.size() + chunk.size() == this.maxRows)
+                throw new BadRequestException("A flight import cannot exceed " + this.maxRows + " rows");
+
+            chunk.add(this.nextRow(flightDtos, rows.size() + chunk.size()));
+            if (chunk.size() == this.chunkSize) {
+                this.importChunk(chunk, rows, planes);
+                chunk.clear();
+            }
+        }
+        this.importChunk(chunk, rows, planes);
+
+        int created = (int) rows.stream().filter(row -> row.getId() != null).count();
+        return new FlightImportDto(created, rows.size() - created, rows);
+    }
+
+    private boolean hasNextRow(MappingIterator<CreateFlightDto> flightDtos, int row) {
+        try {
+            return flightDtos.hasNextValue();
+        } catch (IOException e) {
+            throw this.malformedRow(e, row);
+        }
+    }
+
+    private CreateFlightDto nextRow(MappingIterator<CreateFlightDto> flightDtos, int row) {
+        try {
+            return flightDtos.nextValue();
+        } catch (IOException e) {
+            throw this.malformedRow(e, row);
+        }
+    }
+
+    private BadRequestException malformedRow(IOException e, int row) {
+        String message = e instanceof JsonProcessingException ? ((JsonProcessingException) e).getOriginalMessage() : e.getMessage();
+        return new BadRequestException("Malformed flight at row " + row + ": " + message);
+    }
+
+    private void importChunk(List<CreateFlightDto> chunk, List<FlightImportRowDto> rows, Map<String, Plane> planes) {
+        if (chunk.isEmpty())
+            return;
+
+        // Only one query per chunk, and only for registration codes not seen in previous chunks
+        Set<String> unknownCodes = chunk.stream()
+                .filter(Objects::nonNull)
+                .map(CreateFlightDto::getPlaneRegistrationCode)
+                .filter(code -> code != null && !planes.containsKey(code))
+                .collect(Collectors.toSet());
+        if (!unknownCodes.isEmpty()) {
+            unknownCodes.forEach(code -> planes.put(code, null));
+            this.planeRepository.findByRegistrationCodeIn(unknownCodes).forEach(plane -> planes.put(plane.getRegistrationCode(), plane));
+        }
+
+        List<FlightImportRowDto> chunkRows = new ArrayList<>(chunk.size());
+        List<Flight> flights = new ArrayList<>(chunk.size());
+        for (CreateFlightDto flightDto : chunk) {
+            FlightImportRowDto row = new FlightImportRowDto(rows.size() + chunkRows.size(), null, this.validate(flightDto, planes));
+            chunkRows.add(row);
+            if (row.getError() == null) {
+                Plane plane = planes.get(flightDto.getPlaneRegistrationCode());
+                Flight flight = this.flightMapper.toFlight(flightDto);
+                flight.setPlane(plane);
+                flight.setAirline(plane.getAirline());
+                flight.setHasDeparted(false);
+                if (this.planeScheduleIndex.tryReserve(plane, flight))
+                    flights.add(flight);
+                else
+                    row.setError(new PlaneUnavailableException(plane.getRegistrationCode(), flight.getEtd(), flight.getEta()).getMessage());
+            }
+        }
+
+        // Ids come from the pooled sequences, so both saveAll calls are sent as JDBC batches on flush
+        this.flightRepository.saveAll(flights);
+        LocalDateTime now = LocalDateTime.now(this.clock);
+        List<FlightStatus> statuses = new ArrayList<>(flights.size());
+        flights.forEach(flight -> statuses.add(new FlightStatus(null, flight.getId(), now, FlightStatusEnum.PENDING)));
+        this.flightStatusRepository.saveAll(statuses);
+        flights.forEach(flight -> this.eventPublisher.publishEvent(FlightEvent.of(FlightEventType.CREATED, flight, now)));
+        this.entityManager.flush();
+        this.entityManager.clear();
+
+        Iterator<Flight> created = flights.iterator();
+        for (FlightImportRowDto row : chunkRows) {
+            if (row.getError() == null)
+                row.setId(created.next().getId());
+        }
+        rows.addAll(chunkRows);
+    }
+
+    private String validate(CreateFlightDto flightDto, Map<String, Plane> planes) {
+        if (flightDto == null)
+            return "flight must not be null";
+
+        Set<ConstraintViolation<CreateFlightDto>> violations = this.validator.validate(flightDto);
+        if (!violations.isEmpty())
+            return violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", "));
+
+        if (!flightDto.getEta().isAfter(flightDto.getEtd()))
+            return "Estimated date of departure (etd) must be before the estimated date of arrival (eta)";
+
+        Plane plane = planes.get(flightDto.getPlaneRegistrationCode());
+        if (plane == null)
+            return "Cannot find plane with registration code: " + flightDto.getPlaneRegistrationCode();
+        if (plane.getAirline() == null)
+            return "Cannot find the flight airline from the plane";
+        return null;
+    }
+}
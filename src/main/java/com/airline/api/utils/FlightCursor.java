@@ -0,0 +1,39 @@
+package com.airline.api.utils;
+
+import com.airline.api.exceptions.BadRequestException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+// Opaque keyset cursor over (etd, id), the sort order of every paginated flight listing
+@AllArgsConstructor
+@Getter
+public class FlightCursor {
+    private static final String SEPARATOR = "|";
+
+    private final LocalDateTime etd;
+    private final Long id;
+
+    public static String encode(LocalDateTime etd, Long id) {
+        String raw = etd.toString() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static FlightCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separatorIndex = raw.lastIndexOf(SEPARATOR);
+            if (separatorIndex < 0)
+                throw new BadRequestException("Invalid cursor: " + cursor);
+
+            return new FlightCursor(LocalDateTime.parse(raw.substring(0, separatorIndex)),
+                    Long.valueOf(raw.substring(separatorIndex + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+    }
+}
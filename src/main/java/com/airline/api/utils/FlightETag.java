@@ -0,0 +1,44 @@
+package com.airline.api.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Strong ETag of a single flight, its ID plus the optimistic lock version
+public class FlightETag {
+    private static final String ANY = "*";
+    private static final String WEAK_PREFIX = "W/";
+
+    private FlightETag() {
+    }
+
+    public static String of(Long id, Long version) {
+        return "\"" + id + "-" + version + "\"";
+    }
+
+    public static boolean matches(String ifMatch, Long id, Long version) {
+        List<Long> versions = versions(ifMatch, id);
+        return versions == null || versions.contains(version);
+    }
+
+    // Versions of the flight accepted by If-Match, null when any is; weak ETags never match as it uses the strong comparison
+    public static List<Long> versions(String ifMatch, Long id) {
+        if (ifMatch == null || ifMatch.isBlank())
+            return null;
+
+        String prefix = "\"" + id + "-";
+        List<Long> versions = new ArrayList<>();
+        for (String candidate : ifMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals(ANY))
+                return null;
+            if (trimmed.startsWith(WEAK_PREFIX) || !trimmed.startsWith(prefix) || !trimmed.endsWith("\"") || trimmed.length() <= prefix.length() + 1)
+                continue;
+            try {
+                versions.add(Long.valueOf(trimmed.substring(prefix.length(), trimmed.length() - 1)));
+            } catch (NumberFormatException e) {
+                // Not one of our ETags, it cannot match
+            }
+        }
+        return versions;
+    }
+}
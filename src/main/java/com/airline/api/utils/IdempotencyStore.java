@@ -0,0 +1,126 @@
+package com.airline.api.utils;
+
+import com.airline.api.exceptions.BadRequestException;
+import com.airline.api.exceptions.IdempotencyKeyReusedException;
+import com.airline.api.exceptions.ServiceUnavailableException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// Responses of the writes sent with an Idempotency-Key, so a retried request gets the first response back with one
+// lookup instead of writing again. A duplicate arriving while the first one runs waits for its response, and a
+// failed request frees its key so it can be retried. Running requests are kept apart from the bounded cache, evicting
+// them would let a duplicate write again.
+@Component
+public class IdempotencyStore {
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, Execution> executions;
+    // One entry per request in progress, so bounded by the requests being served
+    private final Map<String, Execution> running = new ConcurrentHashMap<>();
+    private final Duration waitTimeout;
+
+    public IdempotencyStore(@Value("${airline.idempotency.max-keys}") long maxKeys,
+                            @Value("${airline.idempotency.ttl}") Duration ttl,
+                            @Value("${airline.idempotency.wait-timeout}") Duration waitTimeout) {
+        this.executions = Caffeine.newBuilder().maximumSize(maxKeys).expireAfterWrite(ttl).build();
+        this.waitTimeout = waitTimeout;
+    }
+
+    // The operation identifies the endpoint and resource, the request is compared with the one the key was first used with
+    public <T> ResponseEntity<T> execute(String idempotencyKey, String operation, Object request, Supplier<ResponseEntity<T>> action) {
+        if (idempotencyKey == null)
+            return action.get();
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH)
+            throw new BadRequestException(IDEMPOTENCY_KEY + " must have between 1 and " + MAX_KEY_LENGTH + " characters");
+
+        // Keys are only unique per client
+        String key = clientName() + ":" + operation + ":" + idempotencyKey;
+        Execution previous = this.executions.getIfPresent(key);
+        if (previous != null)
+            return this.replay(previous, request, idempotencyKey);
+        Execution execution = new Execution(request, new CompletableFuture<>());
+        previous = this.running.putIfAbsent(key, execution);
+        if (previous != null)
+            return this.replay(previous, request, idempotencyKey);
+        // Completed between both lookups
+        previous = this.executions.getIfPresent(key);
+        if (previous != null) {
+            this.running.remove(key, execution);
+            return this.replay(previous, request, idempotencyKey);
+        }
+
+        try {
+            ResponseEntity<T> response = action.get();
+            execution.response.complete(response);
+            // Cached before it stops running, a duplicate always finds one of them
+            this.executions.put(key, execution);
+            return response;
+        } catch (RuntimeException e) {
+            execution.response.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.running.remove(key, execution);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ResponseEntity<T> replay(Execution previous, Object request, String idempotencyKey) {
+        if (!Objects.equals(previous.request, request))
+            throw new IdempotencyKeyReusedException(idempotencyKey);
+
+        ResponseEntity<T> response;
+        try {
+            response = (ResponseEntity<T>) previous.response.get(this.waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("The request with this " + IDEMPOTENCY_KEY + " is still in progress, retry later");
+        } catch (TimeoutException e) {
+            throw new ServiceUnavailableException("The request with this " + IDEMPOTENCY_KEY + " is still in progress, retry later");
+        } catch (ExecutionException e) {
+            // Same outcome as the request it waited for
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.addAll(response.getHeaders());
+        headers.set(IDEMPOTENT_REPLAYED, "true");
+        return ResponseEntity.status(response.getStatusCode()).headers(headers).body(response.getBody());
+    }
+
+    private static String clientName() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : "";
+    }
+
+    public void invalidateAll() {
+        this.executions.invalidateAll();
+        this.running.clear();
+    }
+
+    @AllArgsConstructor
+    private static class Execution {
+        private final Object request;
+        private final CompletableFuture<ResponseEntity<?>> response;
+    }
+}
@@ -0,0 +1,30 @@
+package com.airline.api.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket stored as the instant it would be full again (GCRA), so taking a token is a single compare and set
+// on one AtomicLong instead of a lock around the token count and the last refill time
+public class TokenBucket {
+    private final long nanosPerToken;
+    private final long capacityNanos;
+    private final AtomicLong fullAt;
+
+    public TokenBucket(int capacity, double tokensPerSecond, long now) {
+        this.nanosPerToken = (long) (1_000_000_000L / tokensPerSecond);
+        this.capacityNanos = this.nanosPerToken * capacity;
+        this.fullAt = new AtomicLong(now);
+    }
+
+    // Returns 0 when a token was taken, otherwise the nanoseconds until the next one is available
+    public long tryConsume(long now) {
+        while (true) {
+            long current = this.fullAt.get();
+            long next = Math.max(current, now) + this.nanosPerToken;
+            long wait = next - now - this.capacityNanos;
+            if (wait > 0)
+                return wait;
+            if (this.fullAt.compareAndSet(current, next))
+                return 0;
+        }
+    }
+}
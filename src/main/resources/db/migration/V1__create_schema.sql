@@ -0,0 +1,66 @@
+-- Portable between H2 and PostgreSQL, Hibernate only validates it (spring.jpa.hibernate.ddl-auto=validate)
+
+create sequence flight_seq start with 1 increment by 50;
+create sequence flight_status_seq start with 1 increment by 50;
+create sequence hibernate_sequence start with 1 increment by 1;
+
+create table airline
+(
+    id          bigint generated by default as identity,
+    name        varchar(255),
+    plane_count integer,
+    version     bigint,
+    primary key (id),
+    constraint uk_airline_name unique (name)
+);
+
+create table plane
+(
+    id                bigint generated by default as identity,
+    model             varchar(255),
+    capacity          integer,
+    registration_code varchar(255),
+    airline_id        bigint,
+    primary key (id),
+    constraint uk_plane_registration_code unique (registration_code),
+    constraint fk_plane_airline foreign key (airline_id) references airline (id)
+);
+
+create table flight
+(
+    id           bigint not null,
+    origin       varchar(255),
+    destination  varchar(255),
+    etd          timestamp,
+    eta          timestamp,
+    depart_date  timestamp,
+    has_departed boolean,
+    version      bigint,
+    plane_id     bigint,
+    airline_id   bigint,
+    primary key (id),
+    constraint fk_flight_plane foreign key (plane_id) references plane (id),
+    constraint fk_flight_airline foreign key (airline_id) references airline (id)
+);
+
+create table flight_status
+(
+    id          bigint       not null,
+    flight_id   bigint       not null,
+    status_date timestamp    not null,
+    status      varchar(255) not null,
+    primary key (id),
+    constraint fk_flight_status_flight foreign key (flight_id) references flight (id)
+);
+
+create table users
+(
+    id       bigint not null,
+    username varchar(255),
+    password varchar(255),
+    email    varchar(255),
+    role     integer,
+    primary key (id),
+    constraint uk_users_username unique (username),
+    constraint uk_users_email unique (email)
+);
@@ -0,0 +1,11 @@
+-- Registration codes, usernames and emails are already indexed by their unique constraints
+
+-- Pending/departed listings of an airline are always filtered by both and sorted by etd
+create index idx_flight_airline_departed_etd on flight (airline_id, has_departed, etd);
+-- Departed history export filters and sorts by departDate
+create index idx_flight_airline_departed_depart_date on flight (airline_id, has_departed, depart_date);
+-- Status history and latest status of a flight
+create index idx_flight_status_flight_date on flight_status (flight_id, status_date);
+-- PostgreSQL does not index foreign keys, deleting a plane or an airline would scan its referencing rows
+create index idx_flight_plane on flight (plane_id);
+create index idx_plane_airline on plane (airline_id);
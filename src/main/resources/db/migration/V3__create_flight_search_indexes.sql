@@ -0,0 +1,5 @@
+-- Route search, narrowed to the departure window and already sorted by etd
+create index idx_flight_route_etd on flight (origin, destination, etd);
+-- Flights of a plane by departure window, still covers the plane foreign key
+create index idx_flight_plane_etd on flight (plane_id, etd);
+drop index idx_flight_plane;
@@ -0,0 +1,149 @@
+package com.airline.api.auth.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"airline.rate-limit.read.capacity=2", "airline.rate-limit.read.tokens-per-second=0.001",
+        "airline.rate-limit.write.capacity=1", "airline.rate-limit.write.tokens-per-second=0.001",
+        "airline.rate-limit.max-in-flight=1"})
+public class RateLimitFilterTest {
+
+    @Autowired
+    private RateLimitFilter rateLimitFilter;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Other tests may leave an authentication on this thread
+    @Before
+    @After
+    public void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private MockHttpServletResponse perform(String method, String remoteAddr) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/airline/vuelo");
+        request.setServletPath("/airline/vuelo");
+        request.setRemoteAddr(remoteAddr);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.rateLimitFilter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    private double count(String route, String outcome) {
+        return this.meterRegistry.get("airline.ratelimit.requests").tag("route", route).tag("outcome", outcome).counter().count();
+    }
+
+    @Test
+    public void whenReadBudgetExceeded_thenTooManyRequests() throws Exception {
+        double limited = this.count("read", "limited");
+        assertEquals(HttpStatus.OK.value(), this.perform("GET", "10.0.0.1").getStatus());
+        assertEquals(HttpStatus.OK.value(), this.perform("GET", "10.0.0.1").getStatus());
+
+        MockHttpServletResponse response = this.perform("GET", "10.0.0.1");
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), response.getStatus());
+        assertTrue(Long.parseLong(response.getHeader(HttpHeaders.RETRY_AFTER)) > 0);
+        assertTrue(response.getContentAsString().contains("Too many requests, retry later"));
+        assertEquals(limited + 1, this.count("read", "limited"));
+
+        // Writes and other clients have their own buckets
+        assertEquals(HttpStatus.OK.value(), this.perform("POST", "10.0.0.1").getStatus());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), this.perform("PUT", "10.0.0.1").getStatus());
+        assertEquals(HttpStatus.OK.value(), this.perform("GET", "10.0.0.2").getStatus());
+    }
+
+    @Test
+    public void whenAuthenticated_thenLimitedBySubject() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("admin", null, AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+        assertEquals(HttpStatus.OK.value(), this.perform("DELETE", "10.0.1.1").getStatus());
+        // Same user from another address
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), this.perform("DELETE", "10.0.1.2").getStatus());
+
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken("user", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+        assertEquals(HttpStatus.OK.value(), this.perform("DELETE", "10.0.1.1").getStatus());
+    }
+
+    @Test
+    public void whenTooManyInFlight_thenShed() throws Exception {
+        double shed = this.count("read", "shed");
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> slowRequest = executor.submit(() -> {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/airline/vuelo");
+            request.setRemoteAddr("10.0.2.1");
+            this.rateLimitFilter.doFilter(request, new MockHttpServletResponse(), (servletRequest, servletResponse) -> {
+                entered.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            return null;
+        });
+        assertTrue(entered.await(30, TimeUnit.SECONDS));
+
+        MockHttpServletResponse response = this.perform("GET", "10.0.2.2");
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), response.getStatus());
+        assertEquals("1", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertEquals(shed + 1, this.count("read", "shed"));
+
+        release.countDown();
+        slowRequest.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(HttpStatus.OK.value(), this.perform("GET", "10.0.2.2").getStatus());
+    }
+
+    @Test
+    public void whenAsyncRequestInFlight_thenHeldUntilCompleted() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/airline/salida/eventos");
+        request.setRemoteAddr("10.0.4.1");
+        request.setAsyncSupported(true);
+        this.rateLimitFilter.doFilter(request, new MockHttpServletResponse(),
+                (servletRequest, servletResponse) -> servletRequest.startAsync());
+        assertTrue(request.isAsyncStarted());
+
+        // The handler returned, but the stream is still being served
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), this.perform("GET", "10.0.4.2").getStatus());
+
+        request.getAsyncContext().complete();
+        assertEquals(HttpStatus.OK.value(), this.perform("GET", "10.0.4.2").getStatus());
+    }
+
+    @Test
+    public void whenActuatorRequest_thenNotLimited() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/actuator/health");
+            request.setServletPath("/actuator/health");
+            request.setRemoteAddr("10.0.3.1");
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            this.rateLimitFilter.doFilter(request, response, new MockFilterChain());
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+        }
+    }
+}
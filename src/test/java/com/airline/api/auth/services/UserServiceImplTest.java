@@ -6,15 +6,31 @@ import com.airline.api.auth.dto.UserJwtDto;
 import com.airline.api.auth.model.Role;
 import com.airline.api.auth.model.User;
 import com.airline.api.auth.repositories.UserRepository;
+import com.airline.api.auth.security.JwtUtils;
+import com.airline.api.auth.security.LoginExecutor;
+import com.airline.api.auth.security.UserDetailsCache;
 import com.airline.api.exceptions.BadRequestException;
+import com.airline.api.exceptions.EntityNotFoundException;
+import com.airline.api.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.jsonwebtoken.Claims;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @RunWith(SpringRunner.class)
@@ -26,10 +42,17 @@ public class UserServiceImplTest {
     private UserRepository userRepository;
     @Autowired
     private UserServiceImpl userService;
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+    @Autowired
+    private UserDetailsCache userDetailsCache;
+    @Autowired
+    private JwtUtils jwtUtils;
 
     @After
     public void tearDown() {
         this.userRepository.deleteAll();
+        this.userDetailsCache.invalidateAll();
     }
 
     @Test
@@ -102,4 +125,102 @@ public class UserServiceImplTest {
         assertEquals("USER", userJwtDto.getRol());
     }
 
+    @Test
+    public void whenAuthenticateUserLegacyHash_thenRehashedWithEncoderId() {
+        this.userRepository.save(new User("user", new BCryptPasswordEncoder(4).encode("password"), "user@gmail.com", Role.ADMIN));
+
+        UserJwtDto userJwtDto = this.userService.authenticateUser(new LoginDto("user", "password"));
+        assertEquals("user@gmail.com", userJwtDto.getEmail());
+        assertEquals("ADMIN", userJwtDto.getRol());
+        String rehashed = this.userRepository.findByUsername("user").getPassword();
+        assertTrue(rehashed.startsWith("{bcrypt}$2a$10$"));
+
+        this.userService.authenticateUser(new LoginDto("user", "password"));
+        assertEquals(rehashed, this.userRepository.findByUsername("user").getPassword());
+    }
+
+    @Test
+    public void whenLoginQueueFull_thenServiceUnavailableException() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LoginExecutor loginExecutor = new LoginExecutor(meterRegistry, 1, 1);
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        CountDownLatch hashing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<String> running = clients.submit(() -> loginExecutor.execute(() -> {
+                hashing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "running";
+            }));
+            hashing.await(10, TimeUnit.SECONDS);
+            Future<String> queued = clients.submit(() -> loginExecutor.execute(() -> "queued"));
+            while (meterRegistry.get("executor.queued").tag("name", "login").gauge().value() < 1)
+                Thread.sleep(10);
+
+            Throwable exception = assertThrows(ServiceUnavailableException.class, () -> loginExecutor.execute(() -> "rejected"));
+            assertEquals("Too many logins in progress, retry later", exception.getMessage());
+            assertEquals(1, meterRegistry.get("airline.auth.login.rejected").counter().count());
+
+            release.countDown();
+            assertEquals("running", running.get(10, TimeUnit.SECONDS));
+            assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            clients.shutdownNow();
+            loginExecutor.destroy();
+        }
+    }
+
+    @Test
+    public void whenGetCachedPrincipal_thenLoadedOnceWithoutPassword() {
+        this.userService.registerUser(new SignupDto("user", "password", "user@gmail.com", "USER"));
+        long misses = this.userDetailsCache.getStats().missCount();
+
+        UserDetails userDetails = this.userDetailsCache.get("user", this.userDetailsService::loadUserByUsername);
+        UserDetails userDetailsCached = this.userDetailsCache.get("user", this.userDetailsService::loadUserByUsername);
+        assertSame(userDetails, userDetailsCached);
+        assertNull(userDetailsCached.getPassword());
+        assertEquals(misses + 1, this.userDetailsCache.getStats().missCount());
+    }
+
+    @Test
+    public void whenUpdateUserRole_thenCachedPrincipalInvalidated() {
+        this.userService.registerUser(new SignupDto("user", "password", "user@gmail.com", "USER"));
+        this.userDetailsCache.get("user", this.userDetailsService::loadUserByUsername);
+
+        this.userService.updateUserRole("user", Role.ADMIN);
+        UserDetails userDetails = this.userDetailsCache.get("user", this.userDetailsService::loadUserByUsername);
+        assertTrue(userDetails.getAuthorities().contains(new SimpleGrantedAuthority("ROLE_ADMIN")));
+        assertEquals(Role.ADMIN, this.userRepository.findByUsername("user").getRole());
+    }
+
+    @Test
+    public void whenUpdateUserRoleNonexistentUser_thenEntityNotFoundException() throws EntityNotFoundException {
+        Throwable exception = assertThrows(EntityNotFoundException.class, () -> this.userService.updateUserRole("user", Role.ADMIN));
+        assertEquals("Cannot find user with username: user", exception.getMessage());
+    }
+
+    @Test
+    public void whenParseJwtTokenTwice_thenClaimsVerifiedOnce() {
+        this.userService.registerUser(new SignupDto("user", "password", "user@gmail.com", "USER"));
+        String token = this.userService.authenticateUser(new LoginDto("user", "password")).getToken();
+
+        Claims claims = this.jwtUtils.parseJwtToken(token);
+        assertEquals("user", claims.getSubject());
+        assertSame(claims, this.jwtUtils.parseJwtToken(token));
+    }
+
+    @Test
+    public void whenParseJwtTokenInvalid_thenNull() {
+        this.userService.registerUser(new SignupDto("user", "password", "user@gmail.com", "USER"));
+        String token = this.userService.authenticateUser(new LoginDto("user", "password")).getToken();
+
+        assertNull(this.jwtUtils.parseJwtToken(token.substring(0, token.length() - 2)));
+        assertNull(this.jwtUtils.parseJwtToken("not-a-token"));
+        assertNull(this.jwtUtils.parseJwtToken(""));
+    }
+
 }
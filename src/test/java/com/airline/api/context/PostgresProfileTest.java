@@ -0,0 +1,113 @@
+package com.airline.api.context;
+
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.cache.ReferenceDataCache;
+import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.exceptions.DepartedFlightException;
+import com.airline.api.persistence.model.Airline;
+import com.airline.api.persistence.model.Flight;
+import com.airline.api.persistence.model.Plane;
+import com.airline.api.persistence.repositories.AirlineRepository;
+import com.airline.api.persistence.repositories.FlightRepository;
+import com.airline.api.persistence.repositories.FlightStatusRepository;
+import com.airline.api.persistence.repositories.PlaneRepository;
+import com.airline.api.services.AirlineServiceImpl;
+import com.airline.api.utils.Utils;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs the postgres profile, migrations and mapping validation included, against H2 in its PostgreSQL mode;
+// the H2 dialect is kept as the PostgreSQL one reads sequence metadata H2 does not have
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:AirportPostgresBD;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driverClassName=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect"
+})
+@ActiveProfiles("postgres")
+public class PostgresProfileTest {
+
+    // !!! IMPORTANT -> GlobalConfig.IS_AUTHENTICATION_ENABLE and GlobalConfig.IS_DATA_INITIALIZATION_ENABLE both must be FALSE
+    private final Airline airline = new Airline(Utils.capitalizeFirstLetter(GlobalConfig.AIRLINE_NAME), 5);
+
+    @Autowired
+    private AirlineRepository airlineRepository;
+    @Autowired
+    private PlaneRepository planeRepository;
+    @Autowired
+    private FlightRepository flightRepository;
+    @Autowired
+    private FlightStatusRepository flightStatusRepository;
+    @Autowired
+    private AirlineServiceImpl airlineService;
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+    @Autowired
+    private PlaneScheduleIndex planeScheduleIndex;
+    @Autowired
+    private DataSource dataSource;
+
+    @After
+    public void tearDown() {
+        this.flightStatusRepository.deleteAll();
+        this.flightRepository.deleteAll();
+        this.planeRepository.deleteAll();
+        this.airlineRepository.deleteAll();
+        this.referenceDataCache.invalidateAll();
+        this.planeScheduleIndex.invalidateAll();
+    }
+
+    private static HikariDataSource pool(int maximumPoolSize, int minimumIdle) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setMaximumPoolSize(maximumPoolSize);
+        pool.setMinimumIdle(minimumIdle);
+        return pool;
+    }
+
+    @Test
+    public void whenPostgresProfile_thenPoolSizedFromProfile() {
+        HikariDataSource pool = (HikariDataSource) this.dataSource;
+        assertEquals("airline-pool", pool.getPoolName());
+        assertEquals(20, pool.getMaximumPoolSize());
+        assertEquals(5, pool.getMinimumIdle());
+    }
+
+    @Test
+    public void whenDepartFlightOnMigratedSchema_thenDepartedOnce() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+
+        this.airlineService.departFlight(flightCreated.getId());
+        assertTrue(this.airlineService.getFlightStatus(flightCreated.getId()).getHasDeparted());
+        assertEquals(2, this.airlineService.getDepartedFlights(true).get(0).getStatuses().size());
+        assertThrows(DepartedFlightException.class, () -> this.airlineService.departFlight(flightCreated.getId()));
+    }
+
+    @Test
+    public void whenPoolSettingsInvalid_thenIllegalStateException() {
+        assertDoesNotThrow(() -> DataSourcePoolValidator.validate(pool(10, 10)));
+
+        Throwable exception = assertThrows(IllegalStateException.class, () -> DataSourcePoolValidator.validate(pool(5, 10)));
+        assertEquals("spring.datasource.hikari.minimum-idle must be between 0 and maximum-pool-size (5)", exception.getMessage());
+
+        HikariDataSource shortLived = pool(10, 10);
+        shortLived.setMaxLifetime(60000);
+        shortLived.setIdleTimeout(60000);
+        exception = assertThrows(IllegalStateException.class, () -> DataSourcePoolValidator.validate(shortLived));
+        assertEquals("spring.datasource.hikari.idle-timeout must be 0 or between 10000ms and max-lifetime", exception.getMessage());
+    }
+}
@@ -1,7 +1,11 @@
 package com.airline.api.controllers;
 
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.cache.ReferenceDataCache;
 import com.airline.api.context.GlobalConfig;
 import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.UpdateFlightDto;
+import com.airline.api.metrics.SqlStatementCounter;
 import com.airline.api.persistence.model.Airline;
 import com.airline.api.persistence.model.Flight;
 import com.airline.api.persistence.model.Plane;
@@ -10,22 +14,43 @@ import com.airline.api.persistence.repositories.FlightRepository;
 import com.airline.api.persistence.repositories.FlightStatusRepository;
 import com.airline.api.persistence.repositories.PlaneRepository;
 import com.airline.api.services.AirlineServiceImpl;
+import com.airline.api.utils.IdempotencyStore;
 import com.airline.api.utils.Utils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -48,13 +73,26 @@ public class AirlineControllerTest {
     private FlightRepository flightRepository;
     @Autowired
     private FlightStatusRepository flightStatusRepository;
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+    @Autowired
+    private PlaneScheduleIndex planeScheduleIndex;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private SqlStatementCounter sqlStatementCounter;
 
     @After
     public void tearDown() {
-        this.flightRepository.deleteAll();
         this.flightStatusRepository.deleteAll();
+        this.flightRepository.deleteAll();
         this.planeRepository.deleteAll();
         this.airlineRepository.deleteAll();
+        this.referenceDataCache.invalidateAll();
+        this.planeScheduleIndex.invalidateAll();
+        this.idempotencyStore.invalidateAll();
     }
 
     @Test
@@ -78,12 +116,205 @@ public class AirlineControllerTest {
                 .andExpect((jsonPath("$.message").value("Cannot find airline with name: " + GlobalConfig.AIRLINE_NAME)));
     }
 
+    // Counts the statements of the request, MockMvc dispatches it on the test thread
+    private void assertWithinBudget(long budget, MockHttpServletRequestBuilder request, ResultMatcher status) throws Exception {
+        long start = this.sqlStatementCounter.current();
+        this.mockMvcAirlineController.perform(request).andExpect(status);
+        long statements = this.sqlStatementCounter.current() - start;
+        assertTrue(statements <= budget, request.buildRequest(null).getRequestURI() + " ran " + statements + " SQL statements, over its budget of " + budget);
+    }
+
+    // Flights spread over two planes with a status history each, so a per flight/plane/status select would show up
+    private List<Flight> createFlights(int count) {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.createPlane(new Plane(null, "Airbus A320", 250, flightAirline, "EC-AA2"));
+        List<Flight> flights = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            flights.add(this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2099, 3, 21, 10, 0).plusHours(3L * i), LocalDateTime.of(2099, 3, 21, 12, 0).plusHours(3L * i), i % 2 == 0 ? "EC-AA1" : "EC-AA2")));
+        this.airlineService.getAirline();
+        return flights;
+    }
+
     @Test
     public void whenFindAllPendingFlightsOk_thenOk() throws Exception {
         this.airlineService.createAirline(airline);
         this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo")).andExpect(status().isOk());
     }
 
+    @Test
+    public void whenFindPendingFlightsPageOk_thenOk() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo").param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.flights.size()").value(1)))
+                .andExpect((jsonPath("$.flights[0].id").value(flightCreated.getId())))
+                .andExpect((jsonPath("$.nextCursor").isNotEmpty()));
+    }
+
+    @Test
+    public void whenFindPendingFlightsPageInvalidSize_thenBadRequest() throws Exception {
+        this.airlineService.createAirline(airline);
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo").param("size", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect((jsonPath("$.message").value("size must be between 1 and " + GlobalConfig.MAX_PAGE_SIZE)));
+    }
+
+    @Test
+    public void whenSearchFlightsOk_thenOk() throws Exception {
+        List<Flight> flights = this.createFlights(4);
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo/buscar")
+                        .param("origin", "Murcia")
+                        .param("destination", "Madrid")
+                        .param("from", "2099-03-21T10:01:00")
+                        .param("to", "2099-03-22T00:00:00")
+                        .param("departed", "false")
+                        .param("plane", "EC-AA2")
+                        .param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.flights.size()").value(1)))
+                .andExpect((jsonPath("$.flights[0].id").value(flights.get(1).getId())))
+                .andExpect((jsonPath("$.nextCursor").isNotEmpty()));
+    }
+
+    @Test
+    public void whenSearchFlightsInvalidWindow_thenBadRequest() throws Exception {
+        this.airlineService.createAirline(airline);
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo/buscar")
+                        .param("from", "2099-03-22T00:00:00")
+                        .param("to", "2099-03-21T00:00:00")
+                        .param("size", "1"))
+                .andExpect(status().isBadRequest())
+                .andExpect((jsonPath("$.message").value("from must be before to")));
+    }
+
+    @Test
+    public void whenAddFlightPlaneAlreadyScheduled_thenConflict() throws Exception {
+        this.createFlights(1);
+        this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"origin\":\"Miami\",\"destination\":\"Paris\",\"etd\":\"2099-03-21T11:00:00\",\"eta\":\"2099-03-21T17:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}"))
+                .andExpect(status().isConflict())
+                .andExpect((jsonPath("$.message").value("Plane with registration code: EC-AA1 already has a flight between 2099-03-21T11:00 and 2099-03-21T17:00")));
+    }
+
+    @Test
+    public void whenAddFlightSameIdempotencyKey_thenCreatedOnce() throws Exception {
+        this.createFlights(0);
+        String flight = "{\"origin\":\"Miami\",\"destination\":\"Paris\",\"etd\":\"2099-03-06T17:00:00\",\"eta\":\"2099-03-06T23:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}";
+        String created = this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo")
+                        .header(IdempotencyStore.IDEMPOTENCY_KEY, "add-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(flight))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist(IdempotencyStore.IDEMPOTENT_REPLAYED))
+                .andReturn().getResponse().getContentAsString();
+
+        this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo")
+                        .header(IdempotencyStore.IDEMPOTENCY_KEY, "add-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(flight))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(IdempotencyStore.IDEMPOTENT_REPLAYED, "true"))
+                .andExpect(content().string(created));
+        assertEquals(1, this.flightRepository.count());
+
+        this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo")
+                        .header(IdempotencyStore.IDEMPOTENCY_KEY, "add-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(flight.replace("Paris", "Roma")))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect((jsonPath("$.message").value("Idempotency-Key: add-1 was already used with a different request")));
+    }
+
+    @Test
+    public void whenAddFlightSameIdempotencyKeyConcurrently_thenCreatedOnce() throws Exception {
+        this.createFlights(0);
+        String flight = "{\"origin\":\"Miami\",\"destination\":\"Paris\",\"etd\":\"2099-03-06T17:00:00\",\"eta\":\"2099-03-06T23:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}";
+        int clients = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<MockHttpServletResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            responses.add(executor.submit(() -> {
+                start.await();
+                return this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo")
+                                .header(IdempotencyStore.IDEMPOTENCY_KEY, "add-2")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(flight))
+                        .andReturn().getResponse();
+            }));
+        }
+        start.countDown();
+        Set<String> bodies = new HashSet<>();
+        for (Future<MockHttpServletResponse> response : responses) {
+            assertEquals(HttpStatus.CREATED.value(), response.get(30, TimeUnit.SECONDS).getStatus());
+            bodies.add(response.get().getContentAsString());
+        }
+        executor.shutdown();
+
+        assertEquals(1, bodies.size());
+        assertEquals(1, this.flightRepository.count());
+    }
+
+    @Test
+    public void whenDepartFlightSameIdempotencyKey_thenNoContent() throws Exception {
+        List<Flight> flights = this.createFlights(1);
+        String departureUri = this.baseUri + "/salida/" + flights.get(0).getId() + "/despegue";
+        this.mockMvcAirlineController.perform(put(departureUri).header(IdempotencyStore.IDEMPOTENCY_KEY, "depart-1"))
+                .andExpect(status().isNoContent());
+        this.mockMvcAirlineController.perform(put(departureUri).header(IdempotencyStore.IDEMPOTENCY_KEY, "depart-1"))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string(IdempotencyStore.IDEMPOTENT_REPLAYED, "true"));
+        this.mockMvcAirlineController.perform(put(departureUri))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    public void whenImportFlightsJsonArray_thenRowResults() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo/lote")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"origin\":\"Miami\",\"destination\":\"Paris\",\"etd\":\"2099-03-06T17:00:00\",\"eta\":\"2099-03-06T23:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}," +
+                                "{\"origin\":\"Miami\",\"destination\":\"Paris\",\"etd\":\"2099-03-06T17:00:00\",\"eta\":\"2099-03-06T23:00:00\",\"planeRegistrationCode\":\"EC-AA9\"}]"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.created").value(1)))
+                .andExpect((jsonPath("$.rejected").value(1)))
+                .andExpect((jsonPath("$.rows[0].row").value(0)))
+                .andExpect((jsonPath("$.rows[0].id").exists()))
+                .andExpect((jsonPath("$.rows[1].row").value(1)))
+                .andExpect((jsonPath("$.rows[1].error").value("Cannot find plane with registration code: EC-AA9")));
+    }
+
+    @Test
+    public void whenImportFlightsNdjson_thenCreated() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo/lote")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"origin\":\"Miami\",\"destination\":\"Paris\",\"etd\":\"2099-03-06T17:00:00\",\"eta\":\"2099-03-06T23:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}\n" +
+                                "{\"origin\":\"Paris\",\"destination\":\"Miami\",\"etd\":\"2099-03-07T17:00:00\",\"eta\":\"2099-03-07T23:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.created").value(2)))
+                .andExpect((jsonPath("$.rejected").value(0)));
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo").param("include", "statuses"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.size()").value(2)))
+                .andExpect((jsonPath("$[0].statuses[0].status").value("PENDING")));
+    }
+
+    @Test
+    public void whenImportFlightsMalformed_thenBadRequest() throws Exception {
+        this.mockMvcAirlineController.perform(post(this.baseUri + "/vuelo/lote")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"origin\":\"Miami\",\"etd\":\"tomorrow\"}]"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void whenAddFlight_thenCreated() throws Exception {
         Airline flightAirline = this.airlineService.createAirline(airline);
@@ -257,7 +488,7 @@ public class AirlineControllerTest {
         Airline flightAirline = this.airlineService.createAirline(airline);
         this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
         Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
-        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo" + "/" + flightCreated.getId()))
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo" + "/" + flightCreated.getId()).param("include", "statuses"))
                 .andExpect(status().isOk())
                 .andExpect((jsonPath("$.id").value(flightCreated.getId())))
                 .andExpect((jsonPath("$.origin").value(flightCreated.getOrigin())))
@@ -553,4 +784,279 @@ public class AirlineControllerTest {
                 .andExpect(status().isConflict())
                 .andExpect((jsonPath("$.message").value("Flight with ID: " + flightCreated.getId() + " has already departed")));
     }
+
+    @Test
+    public void whenDepartFlightTwice_thenMetricsRecorded() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        double created = this.meterRegistry.get("airline.flights.created").counter().count();
+        double departed = this.meterRegistry.get("airline.flights.departed").counter().count();
+        double conflicts = this.meterRegistry.get("airline.flights.departure.conflicts").counter().count();
+        String departureUri = this.baseUri + "/salida/{ID_VUELO}/despegue";
+        long rejectedDepartures = this.meterRegistry.find("http.server.requests").tag("uri", departureUri).tag("status", "409").timers().stream().mapToLong(Timer::count).sum();
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        // Pending flights of other airlines are not counted
+        Airline otherAirline = this.airlineService.createAirline(new Airline("Iberia", 3));
+        this.airlineService.createPlane(new Plane(null, "Airbus A320", 250, otherAirline, "EC-BB1"));
+        this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-BB1"));
+
+        this.mockMvcAirlineController.perform(put(this.baseUri + "/salida/" + flightCreated.getId() + "/despegue"))
+                .andExpect(status().isNoContent());
+        this.mockMvcAirlineController.perform(put(this.baseUri + "/salida/" + flightCreated.getId() + "/despegue"))
+                .andExpect(status().isConflict());
+
+        assertEquals(created + 3, this.meterRegistry.get("airline.flights.created").counter().count());
+        assertEquals(departed + 1, this.meterRegistry.get("airline.flights.departed").counter().count());
+        assertEquals(conflicts + 1, this.meterRegistry.get("airline.flights.departure.conflicts").counter().count());
+        assertEquals(1, this.meterRegistry.get("airline.flights.pending").gauge().value());
+        Timer departures = this.meterRegistry.get("http.server.requests").tag("uri", departureUri).tag("status", "409").timer();
+        assertEquals(rejectedDepartures + 1, departures.count());
+        assertEquals(3, departures.takeSnapshot().percentileValues().length);
+        assertNotNull(this.meterRegistry.find("hibernate.statements").functionCounter());
+    }
+
+    @Test
+    public void whenFindAirlineInfo_thenCountedByRateLimiter() throws Exception {
+        this.airlineService.createAirline(airline);
+        double accepted = this.meterRegistry.get("airline.ratelimit.requests").tag("route", "read").tag("outcome", "accepted").counter().count();
+
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/info")).andExpect(status().isOk());
+
+        assertEquals(accepted + 1, this.meterRegistry.get("airline.ratelimit.requests").tag("route", "read").tag("outcome", "accepted").counter().count());
+        assertEquals(0, this.meterRegistry.get("airline.ratelimit.in-flight").gauge().value());
+    }
+
+    @Test
+    public void whenDepartFlightsOk_thenOk() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        this.airlineService.departFlight(flightCreated.getId());
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        this.mockMvcAirlineController.perform(put(this.baseUri + "/salida/despegue")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\":[" + flightCreated.getId() + "," + flightCreated1.getId() + "]}"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.departed[0]").value(flightCreated1.getId())))
+                .andExpect((jsonPath("$.alreadyDeparted[0]").value(flightCreated.getId())))
+                .andExpect((jsonPath("$.notFound").isEmpty()));
+    }
+
+    @Test
+    public void whenDepartFlightsNoIdsNorBefore_thenBadRequest() throws Exception {
+        this.mockMvcAirlineController.perform(put(this.baseUri + "/salida/despegue")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isBadRequest())
+                .andExpect((jsonPath("$.message").value("Either ids or before must be given")));
+    }
+
+    @Test
+    public void whenExportDepartedFlightsOk_thenNdjsonStreamed() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Miami", "Paris", LocalDateTime.of(2023, 5, 21, 8, 0), LocalDateTime.of(2023, 5, 21, 15, 0), "EC-AA1"));
+        this.airlineService.departFlight(flightCreated.getId());
+        this.airlineService.departFlight(flightCreated1.getId());
+
+        MvcResult mvcResult = this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/exportar")
+                        .param("from", LocalDateTime.now().minusHours(1).toString()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String[] lines = this.mockMvcAirlineController.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        // Every line is a JSON object on its own
+        for (String line : lines)
+            assertTrue(line.startsWith("{") && line.endsWith("}"), line);
+        ObjectMapper objectMapper = new ObjectMapper();
+        assertEquals(flightCreated.getId(), objectMapper.readTree(lines[0]).get("id").asLong());
+        assertTrue(lines[0].contains("\"status\":\"DEPARTED\""));
+        assertEquals(flightCreated1.getId(), objectMapper.readTree(lines[1]).get("id").asLong());
+    }
+
+    @Test
+    public void whenExportDepartedFlightsEmptyRange_thenBadRequest() throws Exception {
+        this.airlineService.createAirline(airline);
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/exportar")
+                        .param("from", "2023-03-21T10:00:00")
+                        .param("to", "2023-03-21T10:00:00"))
+                .andExpect(status().isBadRequest())
+                .andExpect((jsonPath("$.message").value("from must be before to")));
+    }
+
+    @Test
+    public void whenGetFlightByIdIfNoneMatch_thenNotModifiedUntilDeparted() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        String eTag = this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo/" + flightCreated.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo/" + flightCreated.getId()).header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/" + flightCreated.getId()).header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        this.airlineService.departFlight(flightCreated.getId());
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/" + flightCreated.getId()).header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.hasDeparted").value(true)));
+    }
+
+    @Test
+    public void whenUpdateFlightByIdStaleIfMatch_thenPreconditionFailed() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        String eTag = this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo/" + flightCreated.getId()))
+                .andReturn().getResponse().getHeader("ETag");
+
+        this.airlineService.updateFlightById(flightCreated.getId(), new UpdateFlightDto("Berlin", null, null, null, null));
+        this.mockMvcAirlineController.perform(put(this.baseUri + "/vuelo/" + flightCreated.getId()).header("If-Match", eTag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"origin\":\"Miami\"}"))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect((jsonPath("$.message").value("Flight with ID: " + flightCreated.getId() + " does not match the given If-Match ETag")));
+        this.mockMvcAirlineController.perform(put(this.baseUri + "/salida/" + flightCreated.getId() + "/despegue").header("If-Match", eTag))
+                .andExpect(status().isPreconditionFailed());
+
+        String currentETag = this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo/" + flightCreated.getId()))
+                .andReturn().getResponse().getHeader("ETag");
+        this.mockMvcAirlineController.perform(put(this.baseUri + "/salida/" + flightCreated.getId() + "/despegue").header("If-Match", currentETag))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void whenFindAllPendingFlightsIfNoneMatch_thenNotModifiedUntilFlightAdded() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        String eTag = this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo").header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.size()").value(2)));
+    }
+
+    @Test
+    public void whenSubscribeFlightEvents_thenDepartureStreamed() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        MvcResult airlineEvents = this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/eventos"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult flightEvents = this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/" + flightCreated.getId() + "/eventos"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.airlineService.departFlight(flightCreated.getId());
+
+        for (MvcResult events : Arrays.asList(airlineEvents, flightEvents)) {
+            // Events are sent from another thread, wait until the data line has been written too
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!events.getResponse().getContentAsString().contains("\"flightId\":" + flightCreated.getId()) && System.currentTimeMillis() < deadline)
+                Thread.sleep(20);
+            String content = events.getResponse().getContentAsString();
+            assertTrue(content.contains("event:DEPARTED"));
+            assertTrue(content.contains("\"flightId\":" + flightCreated.getId()));
+        }
+    }
+
+    @Test
+    public void whenSubscribeFlightEventsFlightNotFound_thenNotFound() throws Exception {
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/1/eventos"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void whenGetFlightByIdWithoutInclude_thenNoStatuses() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        this.airlineService.departFlight(flightCreated.getId());
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/vuelo" + "/" + flightCreated.getId()))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.id").value(flightCreated.getId())))
+                .andExpect((jsonPath("$.statuses").doesNotExist()));
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida").param("include", "statuses"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$[0].statuses.size()").value(2)))
+                .andExpect((jsonPath("$[0].statuses[0].status").value("PENDING")))
+                .andExpect((jsonPath("$[0].statuses[1].status").value("DEPARTED")));
+    }
+
+    @Test
+    public void whenGetLatestFlightStatusOk_thenOk() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/" + flightCreated.getId() + "/estado"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.status").value("PENDING")));
+        this.airlineService.departFlight(flightCreated.getId());
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/" + flightCreated.getId() + "/estado"))
+                .andExpect(status().isOk())
+                .andExpect((jsonPath("$.status").value("DEPARTED")))
+                .andExpect((jsonPath("$.statusDate").isNotEmpty()));
+    }
+
+    @Test
+    public void whenGetLatestFlightStatusFlightNotFound_thenNotFound() throws Exception {
+        this.mockMvcAirlineController.perform(get(this.baseUri + "/salida/1/estado"))
+                .andExpect(status().isNotFound())
+                .andExpect((jsonPath("$.message").value("Cannot find flight with ID: 1")));
+    }
+
+    @Test
+    public void whenReadPendingFlights_thenWithinStatementBudget() throws Exception {
+        List<Flight> flights = this.createFlights(6);
+        this.assertWithinBudget(2, get(this.baseUri + "/vuelo"), status().isOk());
+        this.assertWithinBudget(3, get(this.baseUri + "/vuelo").param("include", "statuses"), status().isOk());
+        this.assertWithinBudget(1, get(this.baseUri + "/vuelo").param("size", "2"), status().isOk());
+        this.assertWithinBudget(3, get(this.baseUri + "/vuelo/" + flights.get(0).getId()).param("include", "statuses"), status().isOk());
+        this.assertWithinBudget(0, get(this.baseUri + "/info"), status().isOk());
+        this.assertWithinBudget(1, get(this.baseUri + "/vuelo/buscar").param("origin", "Murcia").param("destination", "Madrid").param("plane", "EC-AA1").param("size", "2"), status().isOk());
+        assertNotNull(this.meterRegistry.find("airline.sql.statements").tag("scope", "request").tag("name", "GET " + this.baseUri + "/vuelo").summary());
+        assertNotNull(this.meterRegistry.find("airline.sql.statements").tag("scope", "service").tag("name", "getPendingFlights").summary());
+    }
+
+    @Test
+    public void whenReadDepartedFlights_thenWithinStatementBudget() throws Exception {
+        List<Flight> flights = this.createFlights(6);
+        flights.subList(0, 3).forEach(flight -> this.airlineService.departFlight(flight.getId()));
+        this.assertWithinBudget(2, get(this.baseUri + "/salida"), status().isOk());
+        this.assertWithinBudget(3, get(this.baseUri + "/salida").param("include", "statuses"), status().isOk());
+        this.assertWithinBudget(2, get(this.baseUri + "/salida/" + flights.get(0).getId()), status().isOk());
+        this.assertWithinBudget(1, get(this.baseUri + "/salida/" + flights.get(0).getId() + "/estado"), status().isOk());
+    }
+
+    // One more statement than the writes themselves, in case the pooled ID sequence has to be advanced
+    @Test
+    public void whenWriteFlights_thenWithinStatementBudget() throws Exception {
+        List<Flight> flights = this.createFlights(6);
+        String flight = "{\"origin\":\"Miami\",\"destination\":\"Paris\",\"etd\":\"2099-03-06T17:00:00\",\"eta\":\"2099-03-06T23:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}";
+        this.assertWithinBudget(3, post(this.baseUri + "/vuelo").contentType(MediaType.APPLICATION_JSON).content(flight), status().isCreated());
+        this.assertWithinBudget(4, post(this.baseUri + "/vuelo/lote").contentType(MediaType.APPLICATION_JSON).content("[" + flight + "," + flight.replace("EC-AA1", "EC-AA2") + "," + flight + "]"), status().isOk());
+        this.assertWithinBudget(2, put(this.baseUri + "/vuelo/" + flights.get(1).getId()).contentType(MediaType.APPLICATION_JSON).content("{\"origin\":\"Miami\",\"planeRegistrationCode\":\"EC-AA1\"}"), status().isNoContent());
+        this.assertWithinBudget(3, put(this.baseUri + "/salida/" + flights.get(0).getId() + "/despegue"), status().isNoContent());
+        this.assertWithinBudget(5, put(this.baseUri + "/salida/despegue").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ids\":[" + flights.get(0).getId() + "," + flights.get(2).getId() + "," + flights.get(3).getId() + "]}"), status().isOk());
+        this.assertWithinBudget(3, delete(this.baseUri + "/vuelo/" + flights.get(5).getId()), status().isNoContent());
+    }
 }
@@ -4,6 +4,8 @@ import com.airline.api.auth.dto.SignupDto;
 import com.airline.api.auth.repositories.UserRepository;
 import com.airline.api.auth.services.UserServiceImpl;
 import com.airline.api.context.GlobalConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,6 +16,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -31,12 +34,19 @@ public class AuthControllerTest {
     private UserServiceImpl userService;
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @After
     public void tearDown() {
         this.userRepository.deleteAll();
     }
 
+    private long rejectedLogins() {
+        return this.meterRegistry.find("http.server.requests").tag("uri", this.baseUri + "/auth/login").tag("status", "401")
+                .timers().stream().mapToLong(Timer::count).sum();
+    }
+
     @Test
     public void whenRegisterUserUserOk_thenOk() throws Exception {
         this.mockMvcAuthController.perform(post(this.baseUri + "/auth/signup")
@@ -216,4 +226,17 @@ public class AuthControllerTest {
                 .andExpect((jsonPath("$.message").value("Bad credentials")));
     }
 
+    @Test
+    public void whenAuthenticateUserBadCredentials_thenLoginFailureCounted() throws Exception {
+        double loginFailures = this.meterRegistry.get("airline.auth.login.failures").counter().count();
+        long rejectedLogins = this.rejectedLogins();
+        this.mockMvcAuthController.perform(post(this.baseUri + "/auth/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"username\":\"admin\"," +
+                                "\"password\":\"adsfadsgasgda\"}"))
+                .andExpect(status().isUnauthorized());
+        assertEquals(loginFailures + 1, this.meterRegistry.get("airline.auth.login.failures").counter().count());
+        assertEquals(rejectedLogins + 1, this.rejectedLogins());
+    }
+
 }
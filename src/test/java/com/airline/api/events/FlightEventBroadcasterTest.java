@@ -0,0 +1,172 @@
+package com.airline.api.events;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlightEventBroadcasterTest {
+
+    private TestBroadcaster broadcaster;
+
+    @After
+    public void tearDown() {
+        this.broadcaster.destroy();
+    }
+
+    private static FlightEvent event(Long flightId, FlightEventType type) {
+        return new FlightEvent(flightId, type, type == FlightEventType.DEPARTED, null, null, LocalDateTime.now());
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void whenClientIsSlow_thenEventsOfAFlightCoalesced() throws Exception {
+        this.broadcaster = new TestBroadcaster(Duration.ofSeconds(30), 256);
+        this.broadcaster.subscribe();
+        TestEmitter emitter = this.broadcaster.emitters.get(0);
+
+        // The first send blocks, the rest of the events wait in the pending buffer
+        this.broadcaster.onFlightEvent(event(1L, FlightEventType.CREATED));
+        await(emitter.sending);
+        this.broadcaster.onFlightEvent(event(2L, FlightEventType.CREATED));
+        this.broadcaster.onFlightEvent(event(2L, FlightEventType.UPDATED));
+        this.broadcaster.onFlightEvent(event(3L, FlightEventType.CREATED));
+        this.broadcaster.onFlightEvent(event(2L, FlightEventType.DEPARTED));
+        emitter.release.countDown();
+
+        assertEquals(List.of("1:CREATED", "3:CREATED", "2:DEPARTED"), emitter.awaitSent(3));
+        assertEquals(1, this.broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void whenPendingBufferFull_thenEldestFlightDropped() throws Exception {
+        this.broadcaster = new TestBroadcaster(Duration.ofSeconds(30), 2);
+        this.broadcaster.subscribe(1L);
+        this.broadcaster.subscribe();
+        TestEmitter flightEmitter = this.broadcaster.emitters.get(0);
+        flightEmitter.release.countDown();
+        TestEmitter emitter = this.broadcaster.emitters.get(1);
+
+        this.broadcaster.onFlightEvent(event(1L, FlightEventType.CREATED));
+        await(emitter.sending);
+        this.broadcaster.onFlightEvent(event(2L, FlightEventType.CREATED));
+        this.broadcaster.onFlightEvent(event(3L, FlightEventType.CREATED));
+        this.broadcaster.onFlightEvent(event(4L, FlightEventType.CREATED));
+        emitter.release.countDown();
+
+        assertEquals(List.of("1:CREATED", "3:CREATED", "4:CREATED"), emitter.awaitSent(3));
+        assertEquals(List.of("1:CREATED"), flightEmitter.awaitSent(1));
+        assertEquals(2, this.broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void whenPendingBufferKeepsOverflowing_thenSubscriberDropped() throws Exception {
+        this.broadcaster = new TestBroadcaster(Duration.ofSeconds(30), 2);
+        this.broadcaster.subscribe();
+        TestEmitter emitter = this.broadcaster.emitters.get(0);
+
+        this.broadcaster.onFlightEvent(event(1L, FlightEventType.CREATED));
+        await(emitter.sending);
+        for (long flightId = 2; flightId <= 5; flightId++)
+            this.broadcaster.onFlightEvent(event(flightId, FlightEventType.CREATED));
+
+        await(emitter.completed);
+        assertEquals(0, this.broadcaster.getSubscriberCount());
+        // The blocked send was interrupted and nothing else is sent to it
+        this.broadcaster.onFlightEvent(event(6L, FlightEventType.CREATED));
+        assertEquals(List.of(), emitter.awaitSent(0));
+    }
+
+    @Test
+    public void whenSendOutlastsTimeout_thenSubscriberDroppedAndSenderFreed() throws Exception {
+        this.broadcaster = new TestBroadcaster(Duration.ofMillis(200), 256);
+        this.broadcaster.subscribe();
+        TestEmitter stalled = this.broadcaster.emitters.get(0);
+
+        this.broadcaster.onFlightEvent(event(1L, FlightEventType.CREATED));
+        await(stalled.sending);
+        await(stalled.completed);
+        assertEquals(0, this.broadcaster.getSubscriberCount());
+
+        // The only sender thread serves the next subscriber
+        this.broadcaster.subscribe();
+        TestEmitter next = this.broadcaster.emitters.get(1);
+        next.release.countDown();
+        this.broadcaster.onFlightEvent(event(2L, FlightEventType.CREATED));
+        assertEquals(List.of("2:CREATED"), next.awaitSent(1));
+        assertEquals(List.of(), stalled.awaitSent(0));
+    }
+
+    // A single sender thread, so a blocked send holds every subscriber
+    private static class TestBroadcaster extends FlightEventBroadcaster {
+        private final List<TestEmitter> emitters = Collections.synchronizedList(new ArrayList<>());
+
+        TestBroadcaster(Duration sendTimeout, int maxPendingEvents) {
+            super(Duration.ofMinutes(30), sendTimeout, maxPendingEvents, 1);
+        }
+
+        @Override
+        protected SseEmitter createEmitter(long timeoutMillis) {
+            TestEmitter emitter = new TestEmitter(timeoutMillis);
+            this.emitters.add(emitter);
+            return emitter;
+        }
+    }
+
+    // Stands in for a client whose socket does not take writes until it is released
+    private static class TestEmitter extends SseEmitter {
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        TestEmitter(long timeoutMillis) {
+            super(timeoutMillis);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            this.sending.countDown();
+            try {
+                if (!this.release.await(30, TimeUnit.SECONDS))
+                    throw new IOException("Client did not read");
+            } catch (InterruptedException e) {
+                throw new IOException("Send interrupted");
+            }
+            builder.build().stream()
+                    .filter(data -> data.getData() instanceof FlightEvent)
+                    .map(data -> (FlightEvent) data.getData())
+                    .forEach(event -> this.sent.add(event.getFlightId() + ":" + event.getType()));
+        }
+
+        @Override
+        public synchronized void complete() {
+            this.completed.countDown();
+            super.complete();
+        }
+
+        private List<String> awaitSent(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (this.sent.size() < count && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            // Gives extra sends the chance to show up
+            Thread.sleep(100);
+            synchronized (this.sent) {
+                return new ArrayList<>(this.sent);
+            }
+        }
+    }
+}
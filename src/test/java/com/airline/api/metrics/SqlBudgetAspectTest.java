@@ -0,0 +1,118 @@
+package com.airline.api.metrics;
+
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.cache.ReferenceDataCache;
+import com.airline.api.context.GlobalConfig;
+import com.airline.api.dto.DepartFlightsDto;
+import com.airline.api.dto.FlightDepartureDto;
+import com.airline.api.persistence.model.Airline;
+import com.airline.api.persistence.model.Flight;
+import com.airline.api.persistence.model.Plane;
+import com.airline.api.persistence.repositories.AirlineRepository;
+import com.airline.api.persistence.repositories.FlightRepository;
+import com.airline.api.persistence.repositories.FlightStatusRepository;
+import com.airline.api.persistence.repositories.PlaneRepository;
+import com.airline.api.services.AirlineServiceImpl;
+import com.airline.api.utils.Utils;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"airline.sql.budget.fail=true", "airline.sql.budget.method.addFlight=1"})
+@AutoConfigureMockMvc
+public class SqlBudgetAspectTest {
+
+    // !!! IMPORTANT -> GlobalConfig.IS_AUTHENTICATION_ENABLE and GlobalConfig.IS_DATA_INITIALIZATION_ENABLE both must be FALSE
+    private final Airline airline = new Airline(Utils.capitalizeFirstLetter(GlobalConfig.AIRLINE_NAME), 5);
+    private final String baseUri = "/" + GlobalConfig.AIRLINE_NAME;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private AirlineServiceImpl airlineService;
+    @Autowired
+    private AirlineRepository airlineRepository;
+    @Autowired
+    private PlaneRepository planeRepository;
+    @Autowired
+    private FlightRepository flightRepository;
+    @Autowired
+    private FlightStatusRepository flightStatusRepository;
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+    @Autowired
+    private PlaneScheduleIndex planeScheduleIndex;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @After
+    public void tearDown() {
+        this.flightStatusRepository.deleteAll();
+        this.flightRepository.deleteAll();
+        this.planeRepository.deleteAll();
+        this.airlineRepository.deleteAll();
+        this.referenceDataCache.invalidateAll();
+        this.planeScheduleIndex.invalidateAll();
+    }
+
+    @Test
+    public void whenServiceCallOverBudget_thenRolledBackAndServerError() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        String flight = "{\"origin\":\"Murcia\",\"destination\":\"Madrid\",\"etd\":\"2099-03-21T10:00:00\",\"eta\":\"2099-03-21T12:00:00\",\"planeRegistrationCode\":\"EC-AA1\"}";
+
+        this.mockMvc.perform(post(this.baseUri + "/vuelo").contentType(MediaType.APPLICATION_JSON).content(flight))
+                .andExpect(status().isInternalServerError())
+                .andExpect(jsonPath("$.message").value(startsWith("Service method addFlight ran ")));
+        assertEquals(0, this.flightRepository.count());
+        assertEquals(0, this.flightStatusRepository.count());
+
+        // The schedule reserved by the rolled back call was dropped, the retry is not a conflict
+        this.mockMvc.perform(post(this.baseUri + "/vuelo").contentType(MediaType.APPLICATION_JSON).content(flight))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    public void whenBatchDepartureOverDefaultBudget_thenNotChecked() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        Plane plane = this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        List<Flight> flights = new ArrayList<>();
+        for (int i = 0; i < GlobalConfig.MAX_DEPART_BATCH_SIZE; i++) {
+            Flight flight = new Flight();
+            flight.setOrigin("Murcia");
+            flight.setDestination("Madrid");
+            flight.setEtd(LocalDateTime.of(2099, 3, 21, 10, 0).plusHours(3L * i));
+            flight.setEta(LocalDateTime.of(2099, 3, 21, 12, 0).plusHours(3L * i));
+            flight.setHasDeparted(false);
+            flight.setAirline(flightAirline);
+            flight.setPlane(plane);
+            flights.add(flight);
+        }
+        List<Long> ids = this.flightRepository.saveAll(flights).stream().map(Flight::getId).collect(Collectors.toList());
+
+        // A full batch fetches status IDs from the sequence every 50 flights, over the default budget of 15
+        FlightDepartureDto departure = this.airlineService.departFlights(new DepartFlightsDto(ids, null));
+        assertEquals(GlobalConfig.MAX_DEPART_BATCH_SIZE, departure.getDeparted().size());
+        assertEquals(GlobalConfig.MAX_DEPART_BATCH_SIZE, this.flightStatusRepository.count());
+        assertTrue(this.meterRegistry.get("airline.sql.statements").tag("scope", "service").tag("name", "departFlights").summary().max() > 15);
+    }
+}
@@ -1,12 +1,21 @@
 package com.airline.api.services;
 
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.cache.ReferenceDataCache;
 import com.airline.api.context.GlobalConfig;
 import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.DepartFlightsDto;
+import com.airline.api.dto.FlightDepartureDto;
+import com.airline.api.dto.FlightPageDto;
+import com.airline.api.dto.FlightSearchDto;
 import com.airline.api.dto.FlightStatusDto;
+import com.airline.api.dto.FlightSummaryDto;
 import com.airline.api.dto.UpdateFlightDto;
 import com.airline.api.exceptions.BadRequestException;
 import com.airline.api.exceptions.DepartedFlightException;
 import com.airline.api.exceptions.EntityNotFoundException;
+import com.airline.api.exceptions.PlaneUnavailableException;
+import com.airline.api.exceptions.PreconditionFailedException;
 import com.airline.api.persistence.model.Airline;
 import com.airline.api.persistence.model.Flight;
 import com.airline.api.persistence.model.FlightStatusEnum;
@@ -24,8 +33,17 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -47,13 +65,36 @@ public class AirlineServiceImplTest {
     private FlightStatusRepository flightStatusRepository;
     @Autowired
     private AirlineServiceImpl airlineService;
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+    @Autowired
+    private PlaneScheduleIndex planeScheduleIndex;
 
     @After
     public void tearDown() {
-        this.flightRepository.deleteAll();
         this.flightStatusRepository.deleteAll();
+        this.flightRepository.deleteAll();
         this.planeRepository.deleteAll();
         this.airlineRepository.deleteAll();
+        this.referenceDataCache.invalidateAll();
+        this.planeScheduleIndex.invalidateAll();
+    }
+
+    // Saved bypassing the service, as rows written before the schedule index checked them
+    private Flight saveFlight(Plane plane, LocalDateTime etd, LocalDateTime eta) {
+        Flight flight = new Flight();
+        flight.setOrigin("Murcia");
+        flight.setDestination("Madrid");
+        flight.setEtd(etd);
+        flight.setEta(eta);
+        flight.setHasDeparted(false);
+        flight.setAirline(plane.getAirline());
+        flight.setPlane(plane);
+        return this.flightRepository.save(flight);
+    }
+
+    private static List<Long> ids(List<FlightSummaryDto> flights) {
+        return flights.stream().map(FlightSummaryDto::getId).collect(Collectors.toList());
     }
 
     @Test
@@ -70,8 +111,8 @@ public class AirlineServiceImplTest {
         assertNotNull(airlineSaved.getId());
         assertEquals(Utils.capitalizeFirstLetter(GlobalConfig.AIRLINE_NAME), airlineSaved.getName());
         assertEquals(5, airlineSaved.getPlaneCount());
-        assertEquals(0, airlineSaved.getPendingFlights().size());
-        assertEquals(0, airlineSaved.getDepartedFlights().size());
+        assertEquals(0, this.airlineService.getPendingFlights().size());
+        assertEquals(0, this.airlineService.getDepartedFlights().size());
     }
 
     @Test
@@ -85,7 +126,6 @@ public class AirlineServiceImplTest {
         this.airlineRepository.save(this.airline);
 
         assertEquals(0, this.airlineService.getPendingFlights().size());
-        assertEquals(this.airlineService.getAirline().getPendingFlights().size(), this.airlineService.getPendingFlights().size());
     }
 
     @Test
@@ -143,7 +183,7 @@ public class AirlineServiceImplTest {
         assertEquals(1, flightCreated.getStatuses().size());
         assertEquals(FlightStatusEnum.PENDING, flightCreated.getStatuses().get(0).getStatus());
         assertEquals(1, this.airlineService.getPendingFlights().size());
-        assertTrue(this.airlineService.getPendingFlights().contains(flightCreated));
+        assertTrue(ids(this.airlineService.getPendingFlights()).contains(flightCreated.getId()));
     }
 
     @Test
@@ -233,7 +273,7 @@ public class AirlineServiceImplTest {
         Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
         UpdateFlightDto updateFlightDto = new UpdateFlightDto("Alicante", "Barcelona", LocalDateTime.of(2023, 3, 21, 20, 0), LocalDateTime.of(2023, 3, 21, 22, 0), "EC-AA1");
         this.plane1.setAirline(null);
-        this.planeRepository.save(this.plane1);
+        this.airlineService.createPlane(this.plane1);
         Throwable exception = assertThrows(EntityNotFoundException.class, () -> this.airlineService.updateFlightById(flightCreated.getId(), updateFlightDto));
         assertEquals("Cannot find the flight airline from the plane", exception.getMessage());
         assertEquals(flightCreated, this.airlineService.findFlightById(flightCreated.getId()));
@@ -289,7 +329,7 @@ public class AirlineServiceImplTest {
         this.airlineService.deleteFlightById(flightCreated.getId());
 
         assertEquals(Optional.empty(), this.flightRepository.findById(flightCreated.getId()));
-        assertEquals(0, this.airlineService.getAirline().getPendingFlights().size());
+        assertEquals(0, this.airlineService.getPendingFlights().size());
     }
 
     @Test
@@ -303,7 +343,6 @@ public class AirlineServiceImplTest {
         this.airlineRepository.save(this.airline);
 
         assertEquals(0, this.airlineService.getDepartedFlights().size());
-        assertEquals(this.airlineService.getAirline().getDepartedFlights().size(), this.airlineService.getDepartedFlights().size());
     }
 
     @Test
@@ -334,7 +373,7 @@ public class AirlineServiceImplTest {
         assertTrue(flightDeparted.getHasDeparted());
         assertNotNull(flightDeparted.getDepartDate());
         assertEquals(1, this.airlineService.getDepartedFlights().size());
-        assertTrue(this.airlineService.getDepartedFlights().contains(flightDeparted));
+        assertTrue(ids(this.airlineService.getDepartedFlights()).contains(flightDeparted.getId()));
         assertEquals(0, this.airlineService.getPendingFlights().size());
     }
 
@@ -349,6 +388,251 @@ public class AirlineServiceImplTest {
         assertEquals("Flight with ID: " + flightCreated.getId() + " has already departed", exception.getMessage());
     }
 
+    @Test
+    public void whenUpdateFlightByIdStaleIfMatch_thenPreconditionFailedException() throws PreconditionFailedException {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        String eTag = this.airlineService.getFlightETag(flightCreated.getId());
+        assertEquals(0L, this.airlineService.findFlightById(flightCreated.getId()).getVersion());
+
+        this.airlineService.updateFlightById(flightCreated.getId(), new UpdateFlightDto("Alicante", null, null, null, null), eTag);
+        assertEquals(1L, this.airlineService.findFlightById(flightCreated.getId()).getVersion());
+
+        Throwable exception = assertThrows(PreconditionFailedException.class, () -> this.airlineService.updateFlightById(flightCreated.getId(), new UpdateFlightDto("Berlin", null, null, null, null), eTag));
+        assertEquals("Flight with ID: " + flightCreated.getId() + " does not match the given If-Match ETag", exception.getMessage());
+        assertThrows(PreconditionFailedException.class, () -> this.airlineService.departFlight(flightCreated.getId(), eTag));
+        assertEquals("Alicante", this.airlineService.findFlightById(flightCreated.getId()).getOrigin());
+    }
+
+    @Test
+    public void whenDepartedListChangesWithSameIdAndVersionSums_thenETagChanges() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        List<Flight> flights = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            flights.add(this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2099, 3, 21, 10, 0).plusHours(3L * i), LocalDateTime.of(2099, 3, 21, 12, 0).plusHours(3L * i), "EC-AA1")));
+        // IDs of the outer and the inner pair add up the same when they are consecutive
+        assertEquals(flights.get(0).getId() + flights.get(3).getId(), flights.get(1).getId() + flights.get(2).getId());
+
+        this.airlineService.departFlight(flights.get(0).getId());
+        this.airlineService.departFlight(flights.get(3).getId());
+        String eTag = this.airlineService.getDepartedFlightsETag();
+
+        this.airlineService.deleteFlightById(flights.get(0).getId());
+        this.airlineService.deleteFlightById(flights.get(3).getId());
+        this.airlineService.departFlight(flights.get(1).getId());
+        this.airlineService.departFlight(flights.get(2).getId());
+        assertNotEquals(eTag, this.airlineService.getDepartedFlightsETag());
+    }
+
+    @Test
+    public void whenDepartFlightIfMatchAnyOfTheETags_thenDepart() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        String eTag = this.airlineService.getFlightETag(flightCreated.getId());
+
+        this.airlineService.departFlight(flightCreated.getId(), "W/" + eTag + ", \"other\", " + eTag);
+        Flight flightDeparted = this.airlineService.findFlightById(flightCreated.getId());
+        assertTrue(flightDeparted.getHasDeparted());
+        assertEquals(1L, flightDeparted.getVersion());
+        assertEquals(FlightStatusEnum.DEPARTED, this.airlineService.getLatestFlightStatus(flightCreated.getId()).getStatus());
+        assertEquals(flightDeparted.getDepartDate(), this.airlineService.getLatestFlightStatus(flightCreated.getId()).getStatusDate());
+        assertThrows(DepartedFlightException.class, () -> this.airlineService.departFlight(flightCreated.getId(), eTag));
+    }
+
+    @Test
+    public void whenDepartFlightConcurrently_thenDepartedOnce() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                try {
+                    this.airlineService.departFlight(flightCreated.getId());
+                    return true;
+                } catch (DepartedFlightException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int departed = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get(30, TimeUnit.SECONDS))
+                departed++;
+        }
+        executor.shutdown();
+
+        assertEquals(1, departed);
+        assertEquals(1, this.flightStatusRepository.findByFlightIdIn(Collections.singletonList(flightCreated.getId())).stream()
+                .filter(flightStatus -> flightStatus.getStatus() == FlightStatusEnum.DEPARTED).count());
+    }
+
+    @Test
+    public void whenAddFlightPlaneAlreadyScheduled_thenPlaneUnavailableException() throws PlaneUnavailableException {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.createPlane(new Plane(null, "Airbus A320", 250, flightAirline, "EC-AA2"));
+        this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+
+        Throwable exception = assertThrows(PlaneUnavailableException.class, () -> this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 11, 0), LocalDateTime.of(2023, 3, 21, 14, 0), "EC-AA1")));
+        assertEquals("Plane with registration code: EC-AA1 already has a flight between 2023-03-21T11:00 and 2023-03-21T14:00", exception.getMessage());
+        assertThrows(PlaneUnavailableException.class, () -> this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 9, 0), LocalDateTime.of(2023, 3, 21, 13, 0), "EC-AA1")));
+        assertEquals(1, this.flightRepository.count());
+
+        // Back to back flights and other planes are fine
+        this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 12, 0), LocalDateTime.of(2023, 3, 21, 15, 0), "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 8, 0), LocalDateTime.of(2023, 3, 21, 10, 0), "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 11, 0), LocalDateTime.of(2023, 3, 21, 14, 0), "EC-AA2"));
+        assertEquals(4, this.flightRepository.count());
+    }
+
+    @Test
+    public void whenUpdateFlightSchedule_thenPlaneWindowsMoved() throws PlaneUnavailableException {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.createPlane(new Plane(null, "Airbus A320", 250, flightAirline, "EC-AA2"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 13, 0), LocalDateTime.of(2023, 3, 21, 15, 0), "EC-AA1"));
+
+        assertThrows(PlaneUnavailableException.class, () -> this.airlineService.updateFlightById(flightCreated.getId(), new UpdateFlightDto(null, null, null, LocalDateTime.of(2023, 3, 21, 14, 0), null)));
+        // Overlapping its own previous window is fine
+        this.airlineService.updateFlightById(flightCreated.getId(), new UpdateFlightDto(null, null, LocalDateTime.of(2023, 3, 21, 11, 0), LocalDateTime.of(2023, 3, 21, 13, 0), null));
+
+        // Moving the flight to another plane frees its window on the previous one
+        this.airlineService.updateFlightById(flightCreated1.getId(), new UpdateFlightDto(null, null, null, null, "EC-AA2"));
+        this.airlineService.updateFlightById(flightCreated.getId(), new UpdateFlightDto(null, null, null, LocalDateTime.of(2023, 3, 21, 16, 0), null));
+        assertThrows(PlaneUnavailableException.class, () -> this.airlineService.updateFlightById(flightCreated.getId(), new UpdateFlightDto(null, null, null, null, "EC-AA2")));
+        assertEquals(LocalDateTime.of(2023, 3, 21, 16, 0), this.airlineService.findFlightById(flightCreated.getId()).getEta());
+        assertEquals("EC-AA1", this.airlineService.findFlightById(flightCreated.getId()).getPlane().getRegistrationCode());
+    }
+
+    @Test
+    public void whenDeleteFlight_thenPlaneWindowFreed() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+
+        this.airlineService.deleteFlightById(flightCreated.getId());
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        assertNotNull(flightCreated1.getId());
+    }
+
+    @Test
+    public void whenLoadedSchedulesOverlap_thenEveryOneChecked() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        Plane plane = this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.saveFlight(plane, LocalDateTime.of(2099, 3, 21, 1, 0), LocalDateTime.of(2099, 3, 21, 10, 0));
+        this.saveFlight(plane, LocalDateTime.of(2099, 3, 21, 2, 0), LocalDateTime.of(2099, 3, 21, 3, 0));
+
+        // The schedule departing right before it arrived long ago, the one departing earlier is still flying
+        assertThrows(PlaneUnavailableException.class, () -> this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2099, 3, 21, 5, 0), LocalDateTime.of(2099, 3, 21, 6, 0), "EC-AA1")));
+        this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2099, 3, 21, 10, 0), LocalDateTime.of(2099, 3, 21, 11, 0), "EC-AA1"));
+        assertEquals(3, this.flightRepository.count());
+    }
+
+    @Test
+    public void whenWindowBeforeNow_thenCheckedAgainstDatabase() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        Plane plane = this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2099, 3, 21, 10, 0), LocalDateTime.of(2099, 3, 21, 12, 0), "EC-AA1"));
+        // Arrived already, so it is not kept in memory once the plane is loaded
+        this.saveFlight(plane, LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0));
+
+        assertThrows(PlaneUnavailableException.class, () -> this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 11, 0), LocalDateTime.of(2023, 3, 21, 14, 0), "EC-AA1")));
+        assertThrows(PlaneUnavailableException.class, () -> this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2099, 3, 21, 11, 0), LocalDateTime.of(2099, 3, 21, 14, 0), "EC-AA1")));
+        this.airlineService.addFlight(new CreateFlightDto("Madrid", "Berlin", LocalDateTime.of(2023, 3, 21, 12, 0), LocalDateTime.of(2023, 3, 21, 14, 0), "EC-AA1"));
+        assertEquals(3, this.flightRepository.count());
+    }
+
+    @Test
+    public void whenAddFlightSamePlaneConcurrently_thenBookedOnce() throws Exception {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            int minutes = i * 10;
+            results.add(executor.submit(() -> {
+                start.await();
+                try {
+                    this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, minutes), LocalDateTime.of(2023, 3, 21, 12, minutes), "EC-AA1"));
+                    return true;
+                } catch (PlaneUnavailableException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int added = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get(30, TimeUnit.SECONDS))
+                added++;
+        }
+        executor.shutdown();
+
+        assertEquals(1, added);
+        assertEquals(1, this.flightRepository.count());
+    }
+
+    @Test
+    public void whenDepartFlightsByIds_thenDepartedAndReported() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        Flight flightDeparted = this.airlineService.addFlight(new CreateFlightDto("Miami", "Paris", LocalDateTime.of(2023, 5, 21, 8, 0), LocalDateTime.of(2023, 5, 21, 15, 0), "EC-AA1"));
+        this.airlineService.departFlight(flightDeparted.getId());
+        Long missingId = flightDeparted.getId() + 1000;
+
+        FlightDepartureDto result = this.airlineService.departFlights(new DepartFlightsDto(
+                Arrays.asList(flightCreated.getId(), flightDeparted.getId(), missingId, flightCreated1.getId()), null));
+        assertEquals(Arrays.asList(flightCreated.getId(), flightCreated1.getId()), result.getDeparted());
+        assertEquals(Collections.singletonList(flightDeparted.getId()), result.getAlreadyDeparted());
+        assertEquals(Collections.singletonList(missingId), result.getNotFound());
+        assertEquals(3, this.airlineService.getDepartedFlights().size());
+
+        Flight flightFound = this.airlineService.findFlightById(flightCreated.getId());
+        assertNotNull(flightFound.getDepartDate());
+        assertEquals(2, this.flightStatusRepository.findAll().stream().filter(status -> flightCreated.getId().equals(status.getFlightId())).count());
+    }
+
+    @Test
+    public void whenDepartFlightsBefore_thenOnlyEarlierPendingDeparted() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        Flight flightLater = this.airlineService.addFlight(new CreateFlightDto("Miami", "Paris", LocalDateTime.of(2023, 5, 21, 8, 0), LocalDateTime.of(2023, 5, 21, 15, 0), "EC-AA1"));
+
+        FlightDepartureDto result = this.airlineService.departFlights(new DepartFlightsDto(null, LocalDateTime.of(2023, 5, 1, 0, 0)));
+        assertEquals(Arrays.asList(flightCreated.getId(), flightCreated1.getId()), result.getDeparted());
+        assertTrue(result.getAlreadyDeparted().isEmpty());
+        assertTrue(result.getNotFound().isEmpty());
+        assertEquals(Collections.singletonList(flightLater.getId()), ids(this.airlineService.getPendingFlights()));
+    }
+
+    @Test
+    public void whenDepartFlightsIdsAndBefore_thenBadRequestException() throws BadRequestException {
+        Throwable exception = assertThrows(BadRequestException.class, () -> this.airlineService.departFlights(
+                new DepartFlightsDto(Collections.singletonList(1L), LocalDateTime.of(2023, 5, 1, 0, 0))));
+        assertEquals("Either ids or before must be given", exception.getMessage());
+
+        exception = assertThrows(BadRequestException.class, () -> this.airlineService.departFlights(new DepartFlightsDto(Collections.emptyList(), null)));
+        assertEquals("ids must contain between 1 and " + GlobalConfig.MAX_DEPART_BATCH_SIZE + " flights", exception.getMessage());
+    }
+
     @Test
     public void whenGetFlightStatusDepartedFlight_thenReturnFalseNullDto() {
         Airline flightAirline = this.airlineService.createAirline(this.airline);
@@ -370,8 +654,7 @@ public class AirlineServiceImplTest {
         Flight flightCreated2 = this.airlineService.addFlight(new CreateFlightDto("Miami", "Paris", LocalDateTime.of(2023, 5, 21, 8, 0), LocalDateTime.of(2023, 5, 21, 15, 0), "EC-AA1"));
 
         assertEquals(3, this.airlineService.getPendingFlights().size());
-        assertTrue(this.airlineService.getPendingFlights().containsAll(Arrays.asList(flightCreated, flightCreated1, flightCreated2)));
-        assertEquals(this.airlineService.getAirline().getPendingFlights().size(), this.airlineService.getPendingFlights().size());
+        assertTrue(ids(this.airlineService.getPendingFlights()).containsAll(Arrays.asList(flightCreated.getId(), flightCreated1.getId(), flightCreated2.getId())));
     }
 
     @Test
@@ -386,8 +669,115 @@ public class AirlineServiceImplTest {
         this.airlineService.departFlight(flightCreated2.getId());
 
         assertEquals(3, this.airlineService.getDepartedFlights().size());
-        assertTrue(this.airlineService.getDepartedFlights().containsAll(Arrays.asList(flightCreated, flightCreated1, flightCreated2)));
-        assertEquals(this.airlineService.getAirline().getDepartedFlights().size(), this.airlineService.getDepartedFlights().size());
+        assertTrue(ids(this.airlineService.getDepartedFlights()).containsAll(Arrays.asList(flightCreated.getId(), flightCreated1.getId(), flightCreated2.getId())));
+    }
+
+    @Test
+    public void whenGetPendingFlightsPageInvalidSize_thenBadRequestException() throws BadRequestException {
+        this.airlineService.createAirline(this.airline);
+
+        Throwable exception = assertThrows(BadRequestException.class, () -> this.airlineService.getPendingFlightsPage(0, null));
+        assertEquals("size must be between 1 and " + GlobalConfig.MAX_PAGE_SIZE, exception.getMessage());
+    }
+
+    @Test
+    public void whenGetPendingFlightsPageInvalidCursor_thenBadRequestException() throws BadRequestException {
+        this.airlineService.createAirline(this.airline);
+
+        Throwable exception = assertThrows(BadRequestException.class, () -> this.airlineService.getPendingFlightsPage(2, "not-a-cursor"));
+        assertEquals("Invalid cursor: not-a-cursor", exception.getMessage());
+    }
+
+    @Test
+    public void whenGetPendingFlightsPageOk_thenReturnPagesOrderedByEtd() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Miami", "Paris", LocalDateTime.of(2023, 5, 21, 8, 0), LocalDateTime.of(2023, 5, 21, 15, 0), "EC-AA1"));
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        Flight flightCreated2 = this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        Flight flightDeparted = this.airlineService.addFlight(new CreateFlightDto("Valencia", "Roma", LocalDateTime.of(2023, 3, 1, 10, 0), LocalDateTime.of(2023, 3, 1, 12, 0), "EC-AA1"));
+        this.airlineService.departFlight(flightDeparted.getId());
+
+        FlightPageDto firstPage = this.airlineService.getPendingFlightsPage(2, null);
+        assertEquals(Arrays.asList(flightCreated1.getId(), flightCreated2.getId()), ids(firstPage.getFlights()));
+        assertNotNull(firstPage.getNextCursor());
+
+        FlightPageDto secondPage = this.airlineService.getPendingFlightsPage(2, firstPage.getNextCursor());
+        assertEquals(Arrays.asList(flightCreated.getId()), ids(secondPage.getFlights()));
+        assertNull(secondPage.getNextCursor());
+    }
+
+    @Test
+    public void whenSearchFlightsInvalidWindow_thenBadRequestException() throws BadRequestException {
+        this.airlineService.createAirline(this.airline);
+        FlightSearchDto search = new FlightSearchDto(null, null, LocalDateTime.of(2023, 4, 1, 0, 0), LocalDateTime.of(2023, 3, 1, 0, 0), null, null);
+
+        Throwable exception = assertThrows(BadRequestException.class, () -> this.airlineService.searchFlights(search, null, 2, null));
+        assertEquals("from must be before to", exception.getMessage());
+    }
+
+    @Test
+    public void whenSearchFlightsPlaneNotFound_thenEntityNotFoundException() throws EntityNotFoundException {
+        this.airlineService.createAirline(this.airline);
+
+        Throwable exception = assertThrows(EntityNotFoundException.class, () -> this.airlineService.searchFlights(new FlightSearchDto(), "EC-AA9", 2, null));
+        assertEquals("Cannot find plane with registration code: EC-AA9", exception.getMessage());
+    }
+
+    @Test
+    public void whenSearchFlightsOk_thenReturnMatchingPagesOrderedByEtd() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.createPlane(new Plane(null, "Airbus A320", 250, flightAirline, "EC-AA2"));
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 23, 10, 0), LocalDateTime.of(2023, 3, 23, 12, 0), "EC-AA1"));
+        Flight flightCreated1 = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        Flight flightCreated2 = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 22, 10, 0), LocalDateTime.of(2023, 3, 22, 12, 0), "EC-AA2"));
+        Flight flightOtherRoute = this.airlineService.addFlight(new CreateFlightDto("Madrid", "Murcia", LocalDateTime.of(2023, 3, 22, 15, 0), LocalDateTime.of(2023, 3, 22, 17, 0), "EC-AA1"));
+        Flight flightOutOfWindow = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 4, 1, 10, 0), LocalDateTime.of(2023, 4, 1, 12, 0), "EC-AA1"));
+        this.airlineService.departFlight(flightCreated.getId());
+        FlightSearchDto route = new FlightSearchDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 1, 0, 0), LocalDateTime.of(2023, 4, 1, 0, 0), null, null);
+
+        FlightPageDto firstPage = this.airlineService.searchFlights(route, null, 2, null);
+        assertEquals(Arrays.asList(flightCreated1.getId(), flightCreated2.getId()), ids(firstPage.getFlights()));
+        assertNotNull(firstPage.getNextCursor());
+
+        FlightPageDto secondPage = this.airlineService.searchFlights(route, null, 2, firstPage.getNextCursor());
+        assertEquals(Arrays.asList(flightCreated.getId()), ids(secondPage.getFlights()));
+        assertNull(secondPage.getNextCursor());
+
+        route.setDeparted(false);
+        assertEquals(Arrays.asList(flightCreated1.getId()), ids(this.airlineService.searchFlights(route, "EC-AA1", 10, null).getFlights()));
+        assertEquals(Arrays.asList(flightCreated1.getId(), flightCreated2.getId(), flightOtherRoute.getId(), flightOutOfWindow.getId()),
+                ids(this.airlineService.searchFlights(new FlightSearchDto(null, null, null, null, false, null), null, 10, null).getFlights()));
+    }
+
+    @Test
+    public void whenAddFlightSamePlaneTwice_thenPlaneAndAirlineServedFromCache() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        long planeHits = this.referenceDataCache.getPlaneStats().hitCount();
+        long airlineHits = this.referenceDataCache.getAirlineStats().hitCount();
+
+        this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        this.airlineService.addFlight(new CreateFlightDto("Berlin", "Barcelona", LocalDateTime.of(2023, 4, 21, 20, 0), LocalDateTime.of(2023, 4, 21, 22, 0), "EC-AA1"));
+        this.airlineService.getAirline();
+        this.airlineService.getAirline();
+
+        assertEquals(planeHits + 1, this.referenceDataCache.getPlaneStats().hitCount());
+        assertEquals(airlineHits + 1, this.referenceDataCache.getAirlineStats().hitCount());
+    }
+
+    @Test
+    public void whenCreatePlane_thenPlaneCacheInvalidated() {
+        Airline flightAirline = this.airlineService.createAirline(this.airline);
+        this.airlineService.createPlane(this.plane1);
+        Throwable exception = assertThrows(EntityNotFoundException.class, () -> this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1")));
+        assertEquals("Cannot find the flight airline from the plane", exception.getMessage());
+
+        this.plane1.setAirline(flightAirline);
+        this.airlineService.createPlane(this.plane1);
+        Flight flightCreated = this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", LocalDateTime.of(2023, 3, 21, 10, 0), LocalDateTime.of(2023, 3, 21, 12, 0), "EC-AA1"));
+        assertEquals(flightAirline, flightCreated.getAirline());
     }
 
 }
@@ -0,0 +1,168 @@
+package com.airline.api.services;
+
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.cache.ReferenceDataCache;
+import com.airline.api.context.GlobalConfig;
+import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.UpdateFlightDto;
+import com.airline.api.persistence.model.Airline;
+import com.airline.api.persistence.model.Flight;
+import com.airline.api.persistence.model.Plane;
+import com.airline.api.persistence.repositories.AirlineRepository;
+import com.airline.api.persistence.repositories.FlightRepository;
+import com.airline.api.persistence.repositories.FlightStatusRepository;
+import com.airline.api.persistence.repositories.PlaneRepository;
+import com.airline.api.utils.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"airline.departure.scheduler.enabled=true", "airline.departure.scheduler.interval=1h",
+        "airline.departure.scheduler.grace=5m", "airline.departure.scheduler.batch-size=2"})
+public class DepartureSchedulerTest {
+
+    // !!! IMPORTANT -> GlobalConfig.IS_AUTHENTICATION_ENABLE and GlobalConfig.IS_DATA_INITIALIZATION_ENABLE both must be FALSE
+    private static final LocalDateTime ETD = LocalDateTime.of(2099, 3, 21, 10, 0);
+    private final Airline airline = new Airline(Utils.capitalizeFirstLetter(GlobalConfig.AIRLINE_NAME), 5);
+    private final Plane plane1 = new Plane(null, "Airbus A320", 250, null, "EC-AA1");
+
+    @Autowired
+    private AirlineRepository airlineRepository;
+    @Autowired
+    private PlaneRepository planeRepository;
+    @Autowired
+    private FlightRepository flightRepository;
+    @Autowired
+    private FlightStatusRepository flightStatusRepository;
+    @Autowired
+    private AirlineServiceImpl airlineService;
+    @Autowired
+    private DepartureScheduler departureScheduler;
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+    @Autowired
+    private PlaneScheduleIndex planeScheduleIndex;
+    @MockBean
+    private Clock clock;
+
+    @Before
+    public void setUp() {
+        when(this.clock.getZone()).thenReturn(ZoneId.systemDefault());
+        this.setNow(LocalDateTime.now());
+        this.plane1.setAirline(this.airlineRepository.save(this.airline));
+        this.planeRepository.save(this.plane1);
+    }
+
+    @After
+    public void tearDown() {
+        this.flightStatusRepository.deleteAll();
+        this.flightRepository.deleteAll();
+        this.planeRepository.deleteAll();
+        this.airlineRepository.deleteAll();
+        this.referenceDataCache.invalidateAll();
+        this.planeScheduleIndex.invalidateAll();
+    }
+
+    private void setNow(LocalDateTime now) {
+        when(this.clock.instant()).thenReturn(now.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private Flight addFlight(LocalDateTime etd) {
+        return this.airlineService.addFlight(new CreateFlightDto("Murcia", "Madrid", etd, etd.plusHours(2), "EC-AA1"));
+    }
+
+    private boolean hasDeparted(Flight flight) {
+        return this.flightRepository.findById(flight.getId()).orElseThrow().getHasDeparted();
+    }
+
+    @Test
+    public void whenGraceNotPassed_thenFlightNotDeparted() {
+        Flight flight = this.addFlight(ETD);
+        assertTrue(this.departureScheduler.isScheduled(flight.getId()));
+
+        this.setNow(ETD.plusMinutes(5));
+        this.departureScheduler.departDueFlights();
+        assertFalse(this.hasDeparted(flight));
+        assertTrue(this.departureScheduler.isScheduled(flight.getId()));
+    }
+
+    @Test
+    public void whenGracePassed_thenDueFlightsDepartedInBatches() {
+        Flight flight1 = this.addFlight(ETD);
+        Flight flight2 = this.addFlight(ETD.plusHours(3));
+        Flight flight3 = this.addFlight(ETD.plusHours(6));
+        Flight flight4 = this.addFlight(ETD.plusHours(9));
+
+        // Three due flights need two batches of two
+        this.setNow(ETD.plusHours(6).plusMinutes(6));
+        this.departureScheduler.departDueFlights();
+        assertTrue(this.hasDeparted(flight1));
+        assertTrue(this.hasDeparted(flight2));
+        assertTrue(this.hasDeparted(flight3));
+        assertFalse(this.hasDeparted(flight4));
+        // Stamped with the clock the flights were departed by
+        assertEquals(ETD.plusHours(6).plusMinutes(6), this.flightRepository.findById(flight1.getId()).orElseThrow().getDepartDate());
+        assertFalse(this.departureScheduler.isScheduled(flight1.getId()));
+        assertFalse(this.departureScheduler.isScheduled(flight3.getId()));
+        assertTrue(this.departureScheduler.isScheduled(flight4.getId()));
+    }
+
+    @Test
+    public void whenEtdUpdated_thenFlightRescheduled() {
+        Flight flight = this.addFlight(ETD);
+        this.airlineService.updateFlightById(flight.getId(), new UpdateFlightDto(null, null, ETD.plusDays(1), ETD.plusDays(1).plusHours(2), null));
+
+        this.setNow(ETD.plusHours(1));
+        this.departureScheduler.departDueFlights();
+        assertFalse(this.hasDeparted(flight));
+
+        this.setNow(ETD.plusDays(1).plusHours(1));
+        this.departureScheduler.departDueFlights();
+        assertTrue(this.hasDeparted(flight));
+    }
+
+    @Test
+    public void whenFlightDeletedOrDeparted_thenFlightUnscheduled() {
+        Flight deleted = this.addFlight(ETD);
+        Flight departed = this.addFlight(ETD.plusHours(3));
+
+        this.airlineService.deleteFlightById(deleted.getId());
+        this.airlineService.departFlight(departed.getId());
+        assertFalse(this.departureScheduler.isScheduled(deleted.getId()));
+        assertFalse(this.departureScheduler.isScheduled(departed.getId()));
+    }
+
+    @Test
+    public void whenPendingFlightsLoaded_thenFlightsSavedElsewhereScheduled() {
+        Flight flight = new Flight();
+        flight.setOrigin("Murcia");
+        flight.setDestination("Madrid");
+        flight.setEtd(ETD);
+        flight.setEta(ETD.plusHours(2));
+        flight.setHasDeparted(false);
+        flight.setAirline(this.airline);
+        flight.setPlane(this.plane1);
+        flight = this.flightRepository.save(flight);
+        assertFalse(this.departureScheduler.isScheduled(flight.getId()));
+
+        this.departureScheduler.loadPendingFlights();
+        assertTrue(this.departureScheduler.isScheduled(flight.getId()));
+
+        this.setNow(ETD.plusHours(1));
+        this.departureScheduler.departDueFlights();
+        assertTrue(this.hasDeparted(flight));
+    }
+}
@@ -0,0 +1,202 @@
+package com.airline.api.services;
+
+import com.airline.api.cache.PlaneScheduleIndex;
+import com.airline.api.cache.ReferenceDataCache;
+import com.airline.api.context.GlobalConfig;
+import com.airline.api.dto.CreateFlightDto;
+import com.airline.api.dto.FlightImportDto;
+import com.airline.api.dto.FlightSummaryDto;
+import com.airline.api.events.FlightEvent;
+import com.airline.api.exceptions.BadRequestException;
+import com.airline.api.persistence.model.Airline;
+import com.airline.api.persistence.model.FlightStatusEnum;
+import com.airline.api.persistence.model.Plane;
+import com.airline.api.persistence.repositories.AirlineRepository;
+import com.airline.api.persistence.repositories.FlightRepository;
+import com.airline.api.persistence.repositories.FlightStatusRepository;
+import com.airline.api.persistence.repositories.PlaneRepository;
+import com.airline.api.utils.Utils;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"airline.import.chunk-size=2", "airline.import.max-rows=5"})
+@RecordApplicationEvents
+public class FlightImportServiceImplTest {
+    // Far from the wall clock, so a status or event dated with it stands out
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    private final Airline airline = new Airline(Utils.capitalizeFirstLetter(GlobalConfig.AIRLINE_NAME), 5);
+    private final LocalDateTime etd = LocalDateTime.now().plusYears(1);
+
+    @Autowired
+    private AirlineRepository airlineRepository;
+    @Autowired
+    private PlaneRepository planeRepository;
+    @Autowired
+    private FlightRepository flightRepository;
+    @Autowired
+    private FlightStatusRepository flightStatusRepository;
+    @Autowired
+    private AirlineServiceImpl airlineService;
+    @Autowired
+    private FlightImportServiceImpl flightImportService;
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+    @Autowired
+    private PlaneScheduleIndex planeScheduleIndex;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private ApplicationEvents applicationEvents;
+    @MockBean
+    private Clock clock;
+
+    @Before
+    public void setUp() {
+        when(this.clock.getZone()).thenReturn(ZoneId.systemDefault());
+        when(this.clock.instant()).thenReturn(NOW.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    @After
+    public void tearDown() {
+        this.flightStatusRepository.deleteAll();
+        this.flightRepository.deleteAll();
+        this.planeRepository.deleteAll();
+        this.airlineRepository.deleteAll();
+        this.referenceDataCache.invalidateAll();
+        this.planeScheduleIndex.invalidateAll();
+    }
+
+    private MappingIterator<CreateFlightDto> rows(List<CreateFlightDto> flights) throws IOException {
+        return this.objectMapper.readerFor(CreateFlightDto.class).readValues(this.objectMapper.writeValueAsBytes(flights));
+    }
+
+    private CreateFlightDto flight(int hours, String registrationCode) {
+        return new CreateFlightDto("Murcia", "Madrid", this.etd.plusHours(hours), this.etd.plusHours(hours + 2), registrationCode);
+    }
+
+    @Test
+    public void whenImportFlightsAcrossChunks_thenAllCreatedPending() throws IOException {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.createPlane(new Plane(null, "Boeing 737", 300, flightAirline, "EC-AA2"));
+
+        FlightImportDto result = this.flightImportService.importFlights(this.rows(List.of(
+                flight(1, "EC-AA1"), flight(2, "EC-AA2"), flight(3, "EC-AA1"), flight(4, "EC-AA2"), flight(5, "EC-AA1"))));
+
+        assertEquals(5, result.getCreated());
+        assertEquals(0, result.getRejected());
+        List<FlightSummaryDto> pendingFlights = this.airlineService.getPendingFlights();
+        assertEquals(5, pendingFlights.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, result.getRows().get(i).getRow());
+            assertEquals(pendingFlights.get(i).getId(), result.getRows().get(i).getId());
+            assertEquals(flightAirline, pendingFlights.get(i).getPlane().getAirline());
+        }
+        assertEquals(5, this.flightStatusRepository.count());
+        this.flightStatusRepository.findAll().forEach(status -> assertEquals(FlightStatusEnum.PENDING, status.getStatus()));
+    }
+
+    @Test
+    public void whenImportFlights_thenStatusesAndEventsDatedByClock() throws IOException {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+
+        FlightImportDto result = this.flightImportService.importFlights(this.rows(List.of(flight(1, "EC-AA1"), flight(3, "EC-AA1"))));
+
+        assertEquals(2, result.getCreated());
+        assertEquals(2, this.flightStatusRepository.count());
+        this.flightStatusRepository.findAll().forEach(status -> assertEquals(NOW, status.getStatusDate()));
+        List<FlightEvent> events = this.applicationEvents.stream(FlightEvent.class).collect(Collectors.toList());
+        assertEquals(2, events.size());
+        events.forEach(event -> assertEquals(NOW, event.getEventDate()));
+    }
+
+    @Test
+    public void whenImportFlightsInvalidRows_thenRejectedPerRow() throws IOException {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.createPlane(new Plane(null, "Boeing 737", 300, null, "EC-AA2"));
+        List<CreateFlightDto> flights = new ArrayList<>();
+        flights.add(flight(1, "EC-AA1"));
+        flights.add(new CreateFlightDto("Murcia", "Madrid", this.etd.plusHours(3), this.etd.plusHours(2), "EC-AA1"));
+        flights.add(new CreateFlightDto("", "Madrid", this.etd, this.etd.plusHours(2), "EC-AA1"));
+        flights.add(flight(1, "EC-AA9"));
+        flights.add(flight(1, "EC-AA2"));
+
+        FlightImportDto result = this.flightImportService.importFlights(this.rows(flights));
+
+        assertEquals(1, result.getCreated());
+        assertEquals(4, result.getRejected());
+        assertNotNull(result.getRows().get(0).getId());
+        assertEquals("Estimated date of departure (etd) must be before the estimated date of arrival (eta)", result.getRows().get(1).getError());
+        assertTrue(result.getRows().get(2).getError().contains("origin must not be empty"));
+        assertEquals("Cannot find plane with registration code: EC-AA9", result.getRows().get(3).getError());
+        assertEquals("Cannot find the flight airline from the plane", result.getRows().get(4).getError());
+        assertEquals(1, this.flightRepository.count());
+    }
+
+    @Test
+    public void whenImportFlightsTooManyRows_thenBadRequestException() throws IOException {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        MappingIterator<CreateFlightDto> rows = this.rows(List.of(
+                flight(1, "EC-AA1"), flight(2, "EC-AA1"), flight(3, "EC-AA1"), flight(4, "EC-AA1"), flight(5, "EC-AA1"), flight(6, "EC-AA1")));
+
+        Throwable exception = assertThrows(BadRequestException.class, () -> this.flightImportService.importFlights(rows));
+        assertEquals("A flight import cannot exceed 5 rows", exception.getMessage());
+        // Earlier chunks are rolled back with the rest of the import
+        assertEquals(0, this.flightRepository.count());
+    }
+
+    @Test
+    public void whenImportFlightsPlaneAlreadyScheduled_thenRejectedPerRow() throws IOException {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        this.airlineService.addFlight(flight(1, "EC-AA1"));
+
+        // Overlapping a flight already saved and a row of the same import
+        FlightImportDto result = this.flightImportService.importFlights(this.rows(List.of(flight(2, "EC-AA1"), flight(3, "EC-AA1"), flight(4, "EC-AA1"))));
+
+        assertEquals(1, result.getCreated());
+        assertEquals(2, result.getRejected());
+        assertEquals("Plane with registration code: EC-AA1 already has a flight between " + this.etd.plusHours(2) + " and " + this.etd.plusHours(4), result.getRows().get(0).getError());
+        assertNotNull(result.getRows().get(1).getId());
+        assertEquals("Plane with registration code: EC-AA1 already has a flight between " + this.etd.plusHours(4) + " and " + this.etd.plusHours(6), result.getRows().get(2).getError());
+    }
+
+    @Test
+    public void whenImportFlightsRolledBack_thenPlaneWindowsFreed() throws IOException {
+        Airline flightAirline = this.airlineService.createAirline(airline);
+        this.airlineService.createPlane(new Plane(null, "Boeing 777", 500, flightAirline, "EC-AA1"));
+        MappingIterator<CreateFlightDto> rows = this.rows(List.of(
+                flight(1, "EC-AA1"), flight(3, "EC-AA1"), flight(5, "EC-AA1"), flight(7, "EC-AA1"), flight(9, "EC-AA1"), flight(11, "EC-AA1")));
+
+        assertThrows(BadRequestException.class, () -> this.flightImportService.importFlights(rows));
+
+        FlightImportDto result = this.flightImportService.importFlights(this.rows(List.of(flight(1, "EC-AA1"), flight(3, "EC-AA1"))));
+        assertEquals(2, result.getCreated());
+    }
+}